@@ -0,0 +1,147 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 受信処理の統計カウンタ (lock-free)
+ *
+ * 受信スレッドのみが更新し (単一writerのため lazySet で書き込む)、任意のスレッドから読み出せる。
+ * 値はBluetoothCommの生成時からの累積で、レートは snapshot() の差分から求める。
+ */
+public class AcquisitionStats {
+
+    // Counter index
+    public static final int BYTES = 0;              // 受信バイト数
+    public static final int READS = 1;              // read()の回数 (0byteを除く)
+    public static final int BURST_FRAMES = 2;       // Burst-EOR の数
+    public static final int CONTINUOUS_FRAMES = 3;  // Continuous-EOR の数
+    public static final int CONTINUOUS_PACKETS = 4; // Continuous-EOS の数
+    public static final int DROPPED_FRAMES = 5;     // リングバッファの空き不足で公開できなかったフレーム(Continuousは受信ブロック)数
+    public static final int OVERFLOWS = 6;          // EOR無しにバッファ長を超えて折り返した回数
+    public static final int DISCARDS = 7;           // Force Discard の数
+    public static final int ORPHANS = 8;            // 対になるHigh/Low byteが無いバイト数
+    public static final int UNKNOWN = 9;            // 未定義のバイト数
+    public static final int OVERRUNS = 10;          // リングバッファに格納できなかったサンプル数
+    public static final int DECODE_NS = 11;         // デコード時間の合計 (nsec)
+    public static final int DECODE_MAX_NS = 12;     // 1ブロックのデコード時間の最大値 (nsec)
+    public static final int NUM_COUNTERS = 13;
+
+    // read() size histogram : bucket k counts sizes in [2^k, 2^(k+1)), the last bucket is open-ended
+    public static final int READ_SIZE_BUCKETS = 14;
+
+    private final AtomicLongArray mValue = new AtomicLongArray(NUM_COUNTERS + READ_SIZE_BUCKETS);
+
+    /*
+     * ---- Writer side (receiving thread only) ----
+     */
+
+    void add(int index, long n) {
+        mValue.lazySet(index, mValue.get(index) + n);
+    }
+
+    void increment(int index) {
+        mValue.lazySet(index, mValue.get(index) + 1);
+    }
+
+    void set(int index, long value) {
+        mValue.lazySet(index, value);
+    }
+
+    /**
+     * 1回のread()とそのデコード時間を記録
+     * @param bytes 受信バイト数
+     * @param decodeNs デコード時間 (nsec)
+     */
+    void recordRead(int bytes, long decodeNs) {
+        add(BYTES, bytes);
+        increment(READS);
+        increment(NUM_COUNTERS + readSizeBucket(bytes));
+        add(DECODE_NS, decodeNs);
+        if (decodeNs > mValue.get(DECODE_MAX_NS)) set(DECODE_MAX_NS, decodeNs);
+    }
+
+    /*
+     * ---- Reader side (any thread) ----
+     */
+
+    /**
+     * カウンタ値の取得
+     * @param index カウンタ (BYTES 〜 DECODE_MAX_NS)
+     */
+    public long get(int index) {
+        return mValue.get(index);
+    }
+
+    /**
+     * read()サイズのヒストグラムの取得
+     * @param bucket 2^bucket 〜 2^(bucket+1)-1 byte (最後のbucketは上限無し)
+     */
+    public long getReadSizeCount(int bucket) {
+        return mValue.get(NUM_COUNTERS + bucket);
+    }
+
+    /**
+     * 全カウンタ値をコピーする
+     * @param dst 格納先 (NUM_COUNTERS + READ_SIZE_BUCKETS 以上の大きさ)
+     */
+    public void snapshot(long[] dst) {
+        for (int i = 0; i < NUM_COUNTERS + READ_SIZE_BUCKETS; i++) {
+            dst[i] = mValue.get(i);
+        }
+    }
+
+    /**
+     * snapshot()の格納先を確保
+     */
+    public static long[] newSnapshot() {
+        return new long[NUM_COUNTERS + READ_SIZE_BUCKETS];
+    }
+
+    /**
+     * read()サイズに対応するヒストグラムのbucket
+     */
+    public static int readSizeBucket(int bytes) {
+        int k = 31 - Integer.numberOfLeadingZeros(Math.max(bytes, 1));
+        return Math.min(k, READ_SIZE_BUCKETS - 1);
+    }
+
+    /**
+     * 2つのsnapshot間の受信状況を2行の文字列にする (画面表示用)
+     * @param prev 前回の値
+     * @param cur 今回の値
+     * @param seconds 前回からの経過時間 (sec)
+     * @return {受信量・フレーム数, 欠損・異常の数}
+     */
+    public static String[] describe(long[] prev, long[] cur, double seconds) {
+        long reads = cur[READS] - prev[READS];
+        long bytes = cur[BYTES] - prev[BYTES];
+        long decode = cur[DECODE_NS] - prev[DECODE_NS];
+        String line1 = String.format("RX %5.1fkB/s rd %4dB dec %4.1fus/blk fr B%d C%d",
+                bytes / seconds / 1000,
+                (reads > 0) ? bytes / reads : 0,
+                (reads > 0) ? decode / 1000.0 / reads : 0.0,
+                Math.round((cur[BURST_FRAMES] - prev[BURST_FRAMES]) / seconds),
+                Math.round((cur[CONTINUOUS_FRAMES] - prev[CONTINUOUS_FRAMES]) / seconds));
+        String line2 = String.format("drop %d ovf %d disc %d orph %d unk %d ovr %d",
+                cur[DROPPED_FRAMES], cur[OVERFLOWS], cur[DISCARDS], cur[ORPHANS], cur[UNKNOWN], cur[OVERRUNS]);
+        return new String[]{line1, line2};
+    }
+}
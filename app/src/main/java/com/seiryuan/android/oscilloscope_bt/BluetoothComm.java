@@ -21,10 +21,7 @@ package com.seiryuan.android.oscilloscope_bt;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.UUID;
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -35,14 +32,8 @@ public class BluetoothComm {
     private static final String TAG = "BTCOMM";
     private static final boolean D = false;
 
-    // Unique UUID for SPP profile
-    private static final UUID SPP_UUID =
-            UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-
-    // Bluetooth connection info
-    private final BluetoothAdapter mAdapter;
-    private BluetoothDevice mDevice;
-    private BluetoothSocket mSocket;
+    // Connection info
+    private Transport mTransport;
 
     // Current connection state
     private int mState;
@@ -53,18 +44,63 @@ public class BluetoothComm {
     // SubThreads
     private ConnectThread mConnectThread;
     private ConnectedThread mConnectedThread;
+    private Thread mTeardownThread;
+    private Thread mLastReader; // ConnectedThread of the previous connection (may still be in read())
+
+    // Shutdown of a connection (runs on the teardown thread, never on the caller)
+    private static final long WRITER_DRAIN_TIMEOUT_MS = 250; // wait for queued commands to be sent
+    private static final long READER_JOIN_TIMEOUT_MS = 500;  // wait for ConnectedThread after closing the transport
+    private volatile long mTeardownTime = -1; // nsec, last measured
+
+    // Automatic reconnect after connection loss (null : disabled)
+    private ReconnectPolicy mReconnectPolicy;
+    private final byte[][] mSession = new byte[CommandWriter.KEY_COUNT][]; // last command of each kind, replayed after reconnect
+    private volatile int mReconnectCount = 0;
+    private volatile long mRecoveryTime = -1; // nsec, connection lost -> first frame
+
+    // Status notification to MainActivity (low rate)
+    private final StatusListener mStatusListener;
+
+    // Data arrival notification to renderer (coalesced, high rate)
+    private final DataReadySignal mDataReady = new DataReadySignal();
+    private final DataReadySignal mStoreReady = new DataReadySignal(); // samples appended to deep memory
+
+    // Acquisition health counters (written by reader thread)
+    private final AcquisitionStats mStats = new AcquisitionStats();
+
+    // Frame arrival interval and display staleness (reader thread / render thread)
+    private final FrameTiming mFrameTiming = new FrameTiming();
 
-    // Handler to MainActivity
-    private final Handler mHandler;
+    // Command round-trip latency (command writer thread -> reader thread)
+    private final CommandLatency mCommandLatency = new CommandLatency();
+
+    // Raw stream capture (written by reader thread)
+    private volatile CaptureFile mCapture;
+
+    // Deep memory : every received sample (written by reader thread, null : disabled)
+    private volatile SampleStore mSampleStore;
 
     /// -APPLICATION SPECIFIC- Definitions start here ///
-    private int[][] mBuff; // Data Rx Buffer (double buffer)
+    private SampleRing mRing; // Data Rx Buffer (reader thread -> render thread)
+    private FrameExchanger mFrames; // Frame header (reader thread -> render thread)
+    private long mFrameSeq;
     private int mBuffLength;
-    private int mBuffIndex;
-    private int mBuffActive; //indicates back_buffer(=updating)
-    private int mXferMode;  // Data transfer mode
+    private volatile int mBuffIndex;
+    private volatile int mXferMode;  // Data transfer mode
     public static final int MODE_BURST = 0;
     public static final int MODE_CONTINUOUS = 1;
+    private static final int RING_CAPACITY = 65536; // approx. 0.5sec at SPP line rate (absorbs render thread stall)
+
+    /**
+     * 通信状態の通知先
+     * 接続状態の変化・デバイス名・Toast表示要求のみを扱う低頻度の経路
+     * (受信データの通知は DataReadySignal を使用する)
+     */
+    public interface StatusListener {
+        void onStateChange(int state);
+        void onDeviceName(String name);
+        void onToast(String message);
+    }
 
     /**
      * Constructor.
@@ -72,11 +108,18 @@ public class BluetoothComm {
      * @param handler UI Activityにメッセージを送信するためのハンドラ
      */
     public BluetoothComm(Handler handler) {
-        mAdapter = BluetoothAdapter.getDefaultAdapter();
-        mDevice = null;
-        mSocket = null;
+        this(new HandlerStatusListener(handler));
+    }
+
+    /**
+     * Constructor.
+     * Bluetooth通信セッションを新規作成
+     * @param listener 通信状態の通知先
+     */
+    public BluetoothComm(StatusListener listener) {
+        mTransport = null;
         mState = STATE_NONE;
-        mHandler = handler;
+        mStatusListener = listener;
     }
 
     /**
@@ -86,7 +129,7 @@ public class BluetoothComm {
     private synchronized void setState(int state) {
         if (D) Log.d(TAG, "setState() " + mState + " -> " + state);
         mState = state;
-        mHandler.obtainMessage(MainActivity.MESSAGE_STATE_CHANGE, state, -1).sendToTarget();
+        mStatusListener.onStateChange(state);
     }
 
     /**
@@ -100,50 +143,132 @@ public class BluetoothComm {
      * デバイスへの接続を試行 (ConnectThreadを新規生成)
      * @param device  接続するBluetoothDevice
      */
-    public synchronized void connect(BluetoothDevice device) {
-        if (D) Log.d(TAG, "connect to: " + device);
+    public void connect(BluetoothDevice device) {
+        connect(new RfcommTransport(device));
+    }
+
+    /**
+     * 指定した通信路で接続を試行 (ConnectThreadを新規生成)
+     * @param transport 接続に使用する通信路
+     */
+    public synchronized void connect(Transport transport) {
+        if (D) Log.d(TAG, "connect to: " + transport.getName());
 
-        mDevice = device;
-        // スレッドがすでに存在する場合は停止
-        if (mConnectThread != null) mConnectThread = null;
-        if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
+        // スレッドがすでに存在する場合は停止 (終了処理は別スレッドで行い、ここでは待たない)
+        if (mConnectThread != null) {mConnectThread.interrupt(); mConnectThread = null;}
+        startTeardown(mConnectedThread, mTransport);
+        mConnectedThread = null;
+        mTransport = transport;
+
+        // new session : the probe starts with its default settings
+        for (int i = 0; i < mSession.length; i++) mSession[i] = null;
 
         // 新規にスレッド生成
-        mConnectThread = new ConnectThread();
+        mConnectThread = new ConnectThread(transport, 0);
         mConnectThread.start();
         setState(STATE_CONNECTING);
     }
 
     /**
      * デバイスとの接続を切断し、スレッドを停止
+     * 送信待ちのコマンドの送信・受信スレッドの終了待ちは別スレッドで行うため、呼び出し元(UIスレッド)はブロックしない
      */
     public synchronized void disconnect() {
         if (D) Log.d(TAG, "disconnect");
 
         // terminate all Thread
         if (mConnectThread != null) {
+            mConnectThread.interrupt(); // wakes up from reconnect backoff
             mConnectThread = null;
         }
-        if (mConnectedThread != null) {
-            mConnectedThread.cancel();
-            mConnectedThread = null;
+        startTeardown(mConnectedThread, mTransport);
+        mConnectedThread = null;
+        mTransport = null;
+        setState(STATE_NONE);
+    }
+
+    /*
+     * 接続の終了処理を開始する (synchronizedから呼ぶ)
+     * 1. 送信キューを閉じ、残りのコマンドの送信を待つ (最大WRITER_DRAIN_TIMEOUT_MS)
+     * 2. 通信路を閉じて、ブロック中のread()を終了させる
+     * 3. 受信スレッドの終了を待つ (最大READER_JOIN_TIMEOUT_MS)
+     */
+    private void startTeardown(final ConnectedThread connected, final Transport transport) {
+        if (connected == null && transport == null) return;
+        final long start = System.nanoTime();
+        if (connected != null) {
+            connected.cancel();
+            mLastReader = connected;
         }
-        if(mSocket != null) {
-            try {
-                mSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "close() of connect socket failed", e);
+
+        Thread teardown = new Thread("Teardown") {
+            public void run() {
+                boolean clean = true;
+                if (connected != null) clean = connected.awaitWriter(WRITER_DRAIN_TIMEOUT_MS);
+                if (transport != null) transport.close();
+                if (connected != null) clean &= connected.awaitExit(READER_JOIN_TIMEOUT_MS);
+                mTeardownTime = System.nanoTime() - start;
+                Log.i(TAG, "teardown " + (mTeardownTime / 1000000) + "msec" + (clean ? "" : " (timed out)"));
             }
-            mSocket = null;
-        }
-        mDevice = null;
-        setState(STATE_NONE);
+        };
+        mTeardownThread = teardown;
+        teardown.start();
+    }
+
+    /*
+     * 受信スレッドが通信の切断を検出した (ConnectedThreadから呼ぶ)
+     * 自動再接続が有効な場合、同じ通信路で再接続するConnectThreadを起動してSTATE_CONNECTINGに遷移する
+     * @return 再接続を開始した場合true
+     */
+    private synchronized boolean startReconnect(ConnectedThread lost) {
+        if (mReconnectPolicy == null || mConnectedThread != lost || mTransport == null) return false;
+        if (!mTransport.isReconnectable()) return false;
+        mConnectedThread = null;
+        mLastReader = lost;
+        mTransport.close(); // Transport can connect() again after close()
+
+        mConnectThread = new ConnectThread(mTransport, System.nanoTime());
+        mConnectThread.start();
+        setState(STATE_CONNECTING);
+        return true;
+    }
+
+    /**
+     * 自動再接続の方針を設定
+     * 再接続後は、切断前に送信した各種類(R/T/B・C/A/G/F)の最後のコマンドを再送して設定を復元する
+     * @param policy 再接続の方針 (nullの場合、再接続しない)
+     */
+    public synchronized void setReconnectPolicy(ReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+    }
+
+    /**
+     * 自動再接続に成功した回数を取得
+     */
+    public int getReconnectCount() {
+        return mReconnectCount;
+    }
+
+    /**
+     * 直前の自動再接続で、切断を検出してから最初のフレームを受信するまでの時間を取得
+     * @return nsec (未計測の場合-1)
+     */
+    public long getRecoveryTime() {
+        return mRecoveryTime;
+    }
+
+    /**
+     * 直前の切断処理に要した時間を取得
+     * @return nsec (未計測の場合-1)
+     */
+    public long getTeardownTime() {
+        return mTeardownTime;
     }
 
     /**
-     * デバイスにデータを送信 (Connected Thread呼び出し)
+     * デバイスにデータを送信 (CommandWriterのキューに入れて直ちに戻る)
      * @param out The bytes to write
-     * @see ConnectedThread#write(byte[])
+     * @see CommandWriter#offer(byte[])
      */
     public void write(byte[] out) {
 
@@ -151,19 +276,98 @@ public class BluetoothComm {
         synchronized (this) {
             if (mState != STATE_CONNECTED) return;
             r = mConnectedThread;
+            int key = CommandWriter.coalesceKey(out);
+            if (key >= 0) mSession[key] = out;
         }
-        r.write(out);
+        if (r != null) r.write(out);
+    }
+
+    /**
+     * 現在の接続のコマンド送信スレッドを取得 (送信統計の参照用)
+     * @return 未接続の場合null
+     */
+    public synchronized CommandWriter getCommandWriter() {
+        return (mConnectedThread != null) ? mConnectedThread.mWriter : null;
     }
 
     /**
      * Toast表示要求をMainActivityに発行する
      */
     private void sendToastMsg(String str) {
-        Message msg = mHandler.obtainMessage(MainActivity.MESSAGE_TOAST);
-        Bundle bundle = new Bundle();
-        bundle.putString(MainActivity.TOAST, str);
-        msg.setData(bundle);
-        mHandler.sendMessage(msg);
+        mStatusListener.onToast(str);
+    }
+
+    /**
+     * 受信処理の統計カウンタを取得 (任意のスレッドから参照できる)
+     */
+    public AcquisitionStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * フレームの到着間隔・表示遅れの統計を取得
+     */
+    public FrameTiming getFrameTiming() {
+        return mFrameTiming;
+    }
+
+    /**
+     * コマンドの応答時間の計測結果を取得
+     */
+    public CommandLatency getCommandLatency() {
+        return mCommandLatency;
+    }
+
+    /**
+     * 受信データのキャプチャを開始する
+     * 以降、受信した全てのバイト列を受信時刻と共に記録する (ReplayTransportで再生できる)
+     * @param capture 記録先
+     */
+    public void startCapture(CaptureFile capture) {
+        mCapture = capture;
+    }
+
+    /**
+     * 受信データのキャプチャを終了する (ファイルは閉じない)
+     * @return 記録していたキャプチャファイル (無い場合null)
+     */
+    public CaptureFile stopCapture() {
+        CaptureFile capture = mCapture;
+        mCapture = null;
+        return capture;
+    }
+
+    /**
+     * 長時間記録(deep memory)の保存先を設定
+     * 以降に受信した全てのサンプルを転送モードに関わらず受信順に追加する
+     * @param store 保存先 (nullの場合、記録しない)
+     */
+    public void setSampleStore(SampleStore store) {
+        mSampleStore = store;
+    }
+
+    /**
+     * 長時間記録(deep memory)の保存先を取得
+     * @return 記録していない場合null
+     */
+    public SampleStore getSampleStore() {
+        return mSampleStore;
+    }
+
+    /**
+     * 受信データの通知を取得
+     * 新しいフレームが公開される毎に signal() される
+     */
+    public DataReadySignal getDataReadySignal() {
+        return mDataReady;
+    }
+
+    /**
+     * deep memoryへの追加の通知を取得
+     * SampleStoreにサンプルを公開する毎に signal() される (フレームが完成しない間も通知される)
+     */
+    public DataReadySignal getStoreReadySignal() {
+        return mStoreReady;
     }
 
     /// -APPLICATION SPECIFIC- Public Functions start here ///
@@ -173,26 +377,58 @@ public class BluetoothComm {
      */
     public void initBuffer(int buflen) {
         mBuffLength = buflen;
-        mBuff = new int[2][mBuffLength];
-        mBuffActive = 0;
+        mRing = new SampleRing(Math.max(mBuffLength * 8, RING_CAPACITY));
+        mFrames = new FrameExchanger(0);
+        mFrameSeq = 0;
         mBuffIndex = 0;
+        mXferMode = MODE_BURST;
 
         // for debug : set initial data to 0V
         for(int i = 0; i < mBuffLength; i++) {
-            mBuff[0][i] = 512;
-            mBuff[1][i] = 512;
+            mRing.put(512);
         }
-
-        mXferMode = MODE_BURST;
+        mRing.publish();
+        publishFrame(System.nanoTime(), 0);
     }
 
     /**
-     * SPP通信バッファのデータの取得
-     * @param index バッファ内の位置
-     * @return バッファ内のindex番目のデータ
+     * 受信済みの最新フレームを取得 (描画スレッドから呼ぶ)
+     * サンプル値・転送モード・カーソル位置は常に同じフレームのものが揃って格納される。
+     * Burstモードでは最新の1フレーム、Continuousモードでは現在位置で折り返した最新1画面分となる。
+     * @param dst 格納先 (getBuffLength()以上の大きさ)
+     * @return 前回の取得以降に新しいフレームがあった場合true (falseの場合dstは変更しない)
+     */
+    public boolean readFrame(FrameSnapshot dst) {
+        for (int retry = 0; retry < 4; retry++) {
+            FrameSnapshot f = mFrames.acquire();
+            if (f.sequence == dst.sequence) return false;
+
+            int rotate = (f.mode == MODE_CONTINUOUS) ? f.writeIndex : 0;
+            if (mRing.read(f.end, dst.samples, 0, f.length, rotate)) {
+                dst.copyHeader(f);
+                return true;
+            }
+            // samples already overwritten : newer frames have been published in the meantime
+        }
+        return false;
+    }
+
+    /*
+     * 受信済みデータを新しいフレームとして公開 (受信スレッドから呼ぶ)
+     * @param timestamp フレームを完成させたread()の時刻
+     * @param bytes 前のフレームからの受信バイト数
      */
-    public int getBuffData(int index ) {
-        return mBuff[1- mBuffActive][index];
+    private void publishFrame(long timestamp, int bytes) {
+        FrameSnapshot f = mFrames.getBackBuffer();
+        f.length = mBuffLength;
+        f.mode = mXferMode;
+        f.writeIndex = mBuffIndex;
+        f.sequence = ++mFrameSeq;
+        f.timestamp = timestamp;
+        f.bytes = bytes;
+        f.end = mRing.getHead();
+        mFrames.publish();
+        mDataReady.signal();
     }
 
     /**
@@ -223,172 +459,411 @@ public class BluetoothComm {
      * Connect Thread description
      *********************************************/
     private class ConnectThread extends Thread {
-
-        public ConnectThread() {
-            BluetoothSocket socket = null;
-            try {
-                socket = mDevice.createInsecureRfcommSocketToServiceRecord(SPP_UUID);
-            } catch (IOException e) {
-                Log.e(TAG, "Socket create() failed", e);
-            }
-            mSocket = socket;
+        private final Transport mConnTransport;
+        private final long mLostTime; // System.nanoTime() of the connection loss (0 : not a reconnect)
+        private final ReconnectPolicy mPolicy;
+        private final Thread mPrevReader;
+
+        public ConnectThread(Transport transport, long lostTime) {
+            mConnTransport = transport;
+            mLostTime = lostTime;
+            mPolicy = mReconnectPolicy;
+            mPrevReader = mLastReader;
         }
 
         public void run() {
             Log.i(TAG, "BEGIN ConnectThread." );
             setName("ConnectThread");
 
-            // Always cancel discovery because it will slow down a connection
-            mAdapter.cancelDiscovery();
-
+            // the previous connection must be closed before connecting to the device again
+            Thread teardown;
+            synchronized (BluetoothComm.this) {
+                teardown = mTeardownThread;
+            }
             try {
-                mSocket.connect();
-            } catch (IOException e) {
-                try {
-                    mSocket.close();
-                } catch (IOException e2) {
-                    Log.e(TAG, "unable to close() " + " socket during connection failure", e2);
+                if (teardown != null) teardown.join(WRITER_DRAIN_TIMEOUT_MS + READER_JOIN_TIMEOUT_MS);
+                if (mPrevReader != null) mPrevReader.join(READER_JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (mPrevReader != null && mPrevReader.isAlive()) {
+                // the old reader would feed the shared ring and store together with the new one
+                Log.e(TAG, "previous ConnectedThread did not exit");
+                synchronized (BluetoothComm.this) {
+                    if (mConnectThread != this) return; // cancelled
+                    mConnectThread = null;
+                    mTransport = null;
                 }
-                mSocket = null;
                 sendToastMsg("Unable to connect device");
                 setState(STATE_NONE);
                 return;
             }
 
+            for (int attempt = 0; ; attempt++) {
+                if (mLostTime != 0) {
+                    // reconnect : back off before every attempt
+                    try {
+                        Thread.sleep(mPolicy.getDelay(attempt));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    synchronized (BluetoothComm.this) {
+                        if (mConnectThread != this) return; // cancelled
+                    }
+                }
+                try {
+                    mConnTransport.connect();
+                    break;
+                } catch (IOException e) {
+                    Log.e(TAG, "unable to connect " + mConnTransport.getName(), e);
+                    mConnTransport.close();
+                    if (mLostTime != 0 && mPolicy.shouldRetry(attempt + 1)) continue;
+                    synchronized (BluetoothComm.this) {
+                        if (mConnectThread != this) return; // cancelled
+                        mConnectThread = null;
+                        mTransport = null;
+                    }
+                    sendToastMsg("Unable to connect device");
+                    setState(STATE_NONE);
+                    return;
+                }
+            }
+
             // Reset the ConnectThread because we're done
             synchronized (BluetoothComm.this) {
+                if (mConnectThread != this) { // cancelled
+                    mConnTransport.close();
+                    return;
+                }
                 mConnectThread = null;
-            }
 
-            // Start the connected thread
-            mConnectedThread = new ConnectedThread();
-            mConnectedThread.start();
+                // Start the connected thread
+                mConnectedThread = new ConnectedThread(mConnTransport, mLostTime);
+                mConnectedThread.startThreads();
 
-            // Send the name of the connected device back to the UI Activity
-            Message msg = mHandler.obtainMessage(MainActivity.MESSAGE_DEVICE_NAME);
-            Bundle bundle = new Bundle();
-            bundle.putString(MainActivity.DEVICE_NAME, mDevice.getName());
-            msg.setData(bundle);
-            mHandler.sendMessage(msg);
-            setState(STATE_CONNECTED);
+                // Send the name of the connected device back to the UI Activity
+                // (state is changed under the lock : a lost link or disconnect() of the new thread must not be overwritten)
+                mStatusListener.onDeviceName(mConnTransport.getName());
+                setState(STATE_CONNECTED);
 
+                if (mLostTime != 0) {
+                    // restore the probe settings (R is sent last to restart with them)
+                    for (int i = mSession.length - 1; i >= 0; i--) {
+                        if (mSession[i] != null) mConnectedThread.write(mSession[i]);
+                    }
+                    mReconnectCount++;
+                }
+            }
         }
     }
 
     /*********************************************
      * Connected Thread description
      *********************************************/
-    private class ConnectedThread extends Thread {
+    private class ConnectedThread extends Thread implements SampleDecoder.Callback {
         private final InputStream mInputStream;
         private final OutputStream mOutputStream;
-        private boolean mRunning = true;
+        private final CommandWriter mWriter;
+        private final SampleDecoder mDecoder;
+        private long mReadTime; // System.nanoTime() of the current read block
+        private long mReadBytes; // bytes received including the current read block
+        private long mPublishedBytes; // mReadBytes when the last frame was published
+        private boolean mWrapped; // buffer index wrapped without EOR
+        private int mPublishedIndex; // mBuffIndex at the end of the published samples in the ring
+        private boolean mFrameStarted;
+        private long mFrameStart; // read time of the first sample of the current frame
+        private long mOrphans;
+        private long mUnknown;
+        private long mLostTime; // connection loss before this reconnect (0 : none or first frame received)
+        private SampleStore mStore; // deep memory for the current read block
+        private volatile boolean mRunning = true;
+        private final boolean mReconnectable; // false : end of stream finishes the session
 
         /**
          * constructor
+         * @param lostTime 再接続の場合、切断を検出した時刻 (System.nanoTime())、それ以外は0
          */
-        public ConnectedThread() {
+        public ConnectedThread(Transport transport, long lostTime) {
             Log.d(TAG, "create ConnectedThread.");
             InputStream tmpIn = null;
             OutputStream tmpOut = null;
             try {
-                tmpIn = mSocket.getInputStream();
-                tmpOut = mSocket.getOutputStream();
+                tmpIn = transport.getInputStream();
+                tmpOut = transport.getOutputStream();
             } catch (IOException e) {
                 Log.e(TAG, "temp sockets not created", e);
             }
             mInputStream = tmpIn;
             mOutputStream = tmpOut;
+            mWriter = new CommandWriter(tmpOut);
+            mWriter.setListener(mCommandLatency);
+            mDecoder = new SampleDecoder(this);
+            mLostTime = lostTime;
+            mPublishedIndex = mBuffIndex;
+            mReconnectable = transport.isReconnectable();
+        }
+
+        /**
+         * 受信スレッドと送信スレッドを開始する
+         */
+        public void startThreads() {
+            mWriter.start();
+            start();
         }
 
         /**
          * Thread本体
-         * ---APPLICATION SPECIFIC---
-         * bluetoothSocketの入力ストリームからデータを受信し、
-         * アプリケーション依存処理を行う
+         * Transportの入力ストリームからデータを受信し、SampleDecoderに渡す
          */
         public void run() {
             Log.i(TAG, "BEGIN ConnectedThread");
+            setName("ConnectedThread");
 
-            int tmp_high = 0;
             byte[] buffer = new byte[4096]; // Temporary buffer for Input Stream
             while (mRunning) {
                 try {
                     int count = mInputStream.read(buffer); // Read 1block (not a line)
-                    for(int i = 0; i < count; i++) {
-                        switch(buffer[i]&0xe0) {
-                            case 0x00: // High Byte (common)
-                                tmp_high = buffer[i] & 0x1f;
-                                break;
-                            case 0x20: // Burst-Low byte
-                                mBuff[mBuffActive][mBuffIndex] = (tmp_high << 5) + (buffer[i] & 0x1f);
-                                mBuffIndex++;
-                                if (mBuffIndex >= mBuffLength) mBuffIndex = 0; // check overflow ->discard
-                                mXferMode = MODE_BURST;
-                                break;
-                            case 0x40: // Burst-EOR
-                                mBuff[mBuffActive][mBuffIndex] = (tmp_high << 5) + (buffer[i] & 0x1f);
-                                mBuffActive = 1 - mBuffActive; //swap buffer
-                                mBuffIndex = 0;
-                                mXferMode = MODE_BURST;
-                                mHandler.obtainMessage(MainActivity.MESSAGE_READ_COMPLETE, 0, -1).sendToTarget();
-                                break;
-                            case 0x60: // Continuous-Low byte
-                                mBuff[1- mBuffActive][mBuffIndex] = (tmp_high << 5) + (buffer[i] & 0x1f);
-                                mBuffIndex++;
-                                if (mBuffIndex >= mBuffLength) mBuffIndex = 0; // check overflow ->discard
-                                mXferMode = MODE_CONTINUOUS;
-                                break;
-                            case 0x80: // Continuous-EOS
-                                mBuff[1- mBuffActive][mBuffIndex] = (tmp_high << 5) + (buffer[i] & 0x1f);
-                                mBuffIndex++;
-                                if (mBuffIndex >= mBuffLength) mBuffIndex = 0; // check overflow ->discard
-                                mXferMode = MODE_CONTINUOUS;
-                                mHandler.obtainMessage(MainActivity.MESSAGE_READ_COMPLETE, 0, -1).sendToTarget();
-                                break;
-                            case 0xa0: // Continuous-EOR
-                                mBuff[1- mBuffActive][mBuffIndex] = (tmp_high << 5) + (buffer[i] & 0x1f);
-                                mBuffIndex = 0;
-                                mXferMode = MODE_CONTINUOUS;
-                                mHandler.obtainMessage(MainActivity.MESSAGE_READ_COMPLETE, 0, -1).sendToTarget();
-                                break;
-                            case 0xc0: // Force Discard
-                                mBuffIndex = 0;
-                                break;
+                    if (!mRunning) break; // cancelled while blocked : the data must not reach the ring of the next connection
+                    if (count < 0) {
+                        if (!mReconnectable) {
+                            // end of a replay : the session is finished (not a lost connection)
+                            Log.i(TAG, "end of stream");
+                            mRunning = false;
+                            mWriter.close();
+                            sendToastMsg("End of stream");
+                            setState(STATE_NONE);
+                            break;
                         }
+                        throw new IOException("end of stream");
+                    }
+                    if (count > 0) {
+                        mReadTime = System.nanoTime();
+                        mReadBytes += count;
+                        if (mCapture != null) capture(buffer, count);
+                        mStore = mSampleStore;
+                        mDecoder.feed(buffer, 0, count);
+                        if (mStore != null) {
+                            mStore.publish();
+                            mStoreReady.signal();
+                        }
+                        if (mXferMode == MODE_CONTINUOUS) {
+                            // continuous data is shown as it arrives
+                            publish();
+                        }
+                        updateStats(count, System.nanoTime() - mReadTime);
                     }
                 } catch (IOException e) {
+                    if (!mRunning) break; // closed by cancel()
                     Log.e(TAG, "Bluetooth disconnected", e);
-                    sendToastMsg("Connection was lost");
-                    setState(STATE_NONE);
                     mRunning = false;
+                    mWriter.close();
+                    if (startReconnect(this)) {
+                        sendToastMsg("Connection was lost, reconnecting");
+                    }
+                    else {
+                        sendToastMsg("Connection was lost");
+                        setState(STATE_NONE);
+                    }
                     break;
                 }
             }
         }
 
+        /*
+         * 受信バッファのサンプルをフレームとして公開 (破棄があった場合は取り消す)
+         */
+        private void publish() {
+            if (!mRing.publish()) {
+                // the cursor must match the end of the ring for readFrame()
+                mBuffIndex = mPublishedIndex;
+                mStats.increment(AcquisitionStats.DROPPED_FRAMES);
+                return;
+            }
+            mPublishedIndex = mBuffIndex;
+            // bytes are counted per read block : a frame completed in the same read as the previous one has 0 bytes
+            int bytes = (int) (mReadBytes - mPublishedBytes);
+            mPublishedBytes = mReadBytes;
+            publishFrame(mReadTime, bytes);
+            mFrameTiming.recordArrival(mReadTime, bytes);
+            if (mLostTime != 0) { // first frame after reconnect
+                mRecoveryTime = mReadTime - mLostTime;
+                mLostTime = 0;
+                Log.i(TAG, "recovered in " + (mRecoveryTime / 1000000) + "msec");
+            }
+        }
+
+        /*
+         * 受信ブロックをキャプチャファイルに記録 (失敗した場合はキャプチャを中止し、受信は継続する)
+         */
+        private void capture(byte[] buffer, int count) {
+            CaptureFile capture = mCapture;
+            if (capture == null) return;
+            try {
+                capture.append(mReadTime, buffer, 0, count);
+            } catch (IOException e) {
+                Log.e(TAG, "capture stopped", e);
+                mCapture = null;
+            }
+        }
+
+        /*
+         * 1ブロック分の統計を更新
+         */
+        private void updateStats(int count, long decodeNs) {
+            mStats.recordRead(count, decodeNs);
+            long orphans = mDecoder.getOrphanCount();
+            if (orphans != mOrphans) {
+                mStats.add(AcquisitionStats.ORPHANS, orphans - mOrphans);
+                mOrphans = orphans;
+            }
+            long unknown = mDecoder.getUnknownCount();
+            if (unknown != mUnknown) {
+                mStats.add(AcquisitionStats.UNKNOWN, unknown - mUnknown);
+                mUnknown = unknown;
+            }
+            mStats.set(AcquisitionStats.OVERRUNS, mRing.getOverruns());
+        }
+
+        /**
+         * ---APPLICATION SPECIFIC---
+         * デコードされたサンプルを受信バッファに格納 (SampleDecoderから呼ばれる)
+         */
+        @Override
+        public void onSample(int mode, int value) {
+            if (mWrapped) { // more samples than the buffer without EOR
+                mStats.increment(AcquisitionStats.OVERFLOWS);
+                mWrapped = false;
+            }
+            if (!mFrameStarted) {
+                mFrameStart = mReadTime;
+                mFrameStarted = true;
+            }
+            mRing.put(value);
+            if (mStore != null) mStore.append(value);
+            mBuffIndex++;
+            if (mBuffIndex >= mBuffLength) { // check overflow ->discard
+                mBuffIndex = 0;
+                mWrapped = true;
+            }
+            mXferMode = mode;
+        }
+
+        /**
+         * ---APPLICATION SPECIFIC---
+         * フレーム区切りの処理 (SampleDecoderから呼ばれる)
+         */
+        @Override
+        public void onFrame(int mode, int marker) {
+            mCommandLatency.onFrame(mode, mFrameStart, mReadTime);
+            mFrameStarted = false;
+            if (marker == SampleDecoder.MARKER_END_OF_RECORD) {
+                mBuffIndex = 0;
+                mWrapped = false;
+                if (mode == MODE_BURST) {
+                    mStats.increment(AcquisitionStats.BURST_FRAMES);
+                    // burst frame is shown when completed
+                    publish();
+                }
+                else {
+                    mStats.increment(AcquisitionStats.CONTINUOUS_FRAMES);
+                }
+            }
+            else {
+                mStats.increment(AcquisitionStats.CONTINUOUS_PACKETS);
+            }
+        }
+
+        /**
+         * ---APPLICATION SPECIFIC---
+         * Force Discard の処理 (SampleDecoderから呼ばれる)
+         */
+        @Override
+        public void onDiscard() {
+            mStats.increment(AcquisitionStats.DISCARDS);
+            // drop the unpublished samples (incomplete burst frame, or the current block of a sweep)
+            // and move the cursor back to the end of the published ones (0 in burst mode)
+            mRing.rollback();
+            mBuffIndex = mPublishedIndex;
+            mWrapped = false;
+            mFrameStarted = false;
+        }
+
         /**
-         * bluetoothDeviceに対してバイト列を送信するスレッド内関数
+         * bluetoothDeviceに対してバイト列を送信する (CommandWriterのキューに入れるだけでブロックしない)
          * bluetoothComm.write()から呼ばれる
          * @param buffer 送信データ
          */
         public void write(byte[] buffer) {
-            try {
-                mOutputStream.write(buffer);
-                mOutputStream.flush();
-            } catch (IOException e) {
-                Log.e(TAG, "Exception during write", e);
-            }
+            if (!mWriter.offer(buffer)) Log.w(TAG, "command dropped (queue full)");
         }
 
         /**
-         * bluetooth Socketの通信が完了するまで待ってからrun()のメインループを停止させる
+         * run()のメインループの停止を指示し、送信キューを閉じる (待たずに戻る)
+         * 実際の終了はBluetoothComm.startTeardown()で通信路を閉じた時点
          */
         public void cancel() {
+            mRunning = false;
+            mWriter.close(); // queued commands are still sent
+        }
+
+        /**
+         * 送信キューに残っているコマンドの送信完了を待つ
+         * @return 時間内に完了した場合true
+         */
+        public boolean awaitWriter(long timeoutMs) {
+            return join(mWriter, timeoutMs);
+        }
+
+        /**
+         * 受信スレッドの終了を待つ (通信路を閉じた後に呼ぶ)
+         * @return 時間内に終了した場合true
+         */
+        public boolean awaitExit(long timeoutMs) {
+            return join(this, timeoutMs);
+        }
+
+        private boolean join(Thread t, long timeoutMs) {
+            if (!t.isAlive()) return true;
             try {
-                Thread.sleep(750); //wait 0.75sec (until complete flushing)
+                t.join(timeoutMs);
             } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            mRunning = false;
+            return !t.isAlive();
+        }
+    }
+
+    /*********************************************
+     * StatusListener for MainActivity's Handler
+     *********************************************/
+    private static class HandlerStatusListener implements StatusListener {
+        private final Handler mHandler;
+
+        HandlerStatusListener(Handler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public void onStateChange(int state) {
+            mHandler.obtainMessage(MainActivity.MESSAGE_STATE_CHANGE, state, -1).sendToTarget();
+        }
+
+        @Override
+        public void onDeviceName(String name) {
+            Message msg = mHandler.obtainMessage(MainActivity.MESSAGE_DEVICE_NAME);
+            Bundle bundle = new Bundle();
+            bundle.putString(MainActivity.DEVICE_NAME, name);
+            msg.setData(bundle);
+            mHandler.sendMessage(msg);
+        }
+
+        @Override
+        public void onToast(String message) {
+            Message msg = mHandler.obtainMessage(MainActivity.MESSAGE_TOAST);
+            Bundle bundle = new Bundle();
+            bundle.putString(MainActivity.TOAST, message);
+            msg.setData(bundle);
+            mHandler.sendMessage(msg);
         }
     }
 }
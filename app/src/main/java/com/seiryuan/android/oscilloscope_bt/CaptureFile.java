@@ -0,0 +1,137 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 受信データのキャプチャファイル (追記専用, memory-mapped)
+ *
+ * 受信スレッドが読み出したバイト列をそのまま、読み出し時刻(System.nanoTime())と共に記録する。
+ * ファイル形式: [magic 8byte] 以降レコードの繰り返し [time 8byte][length 4byte][data length byte]
+ * (little endian)。書き込みはマップした領域へのコピーのみで、システムコールを伴わない。
+ * 記録したファイルは ReplayTransport で再生できる。
+ */
+public class CaptureFile implements Closeable {
+
+    static final long MAGIC = 0x313030504143534fL; // "OSCAP001"
+    static final int FILE_HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 12;
+    static final int DEFAULT_WINDOW = 4 * 1024 * 1024;
+
+    private final File mPath;
+    private final int mWindowSize;
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private MappedByteBuffer mMap; // mapped window starting at the write position
+    private long mSize;            // bytes written
+    private long mRecords;
+
+    /**
+     * キャプチャファイルを新規作成する (既存のファイルは上書き)
+     * @param path ファイル
+     */
+    public CaptureFile(File path) throws IOException {
+        this(path, DEFAULT_WINDOW);
+    }
+
+    /**
+     * キャプチャファイルを新規作成する
+     * @param path ファイル
+     * @param windowSize 一度にマップする大きさ (byte)
+     */
+    public CaptureFile(File path, int windowSize) throws IOException {
+        mPath = path;
+        mWindowSize = windowSize;
+        mFile = new RandomAccessFile(path, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        map(0, FILE_HEADER_SIZE);
+        mMap.putLong(MAGIC);
+        mSize = FILE_HEADER_SIZE;
+    }
+
+    /**
+     * 受信ブロックを1つ追記する
+     * @param time 受信時刻 (System.nanoTime())
+     * @param buffer 受信データ
+     * @param off 先頭位置
+     * @param len バイト数
+     */
+    public synchronized void append(long time, byte[] buffer, int off, int len) throws IOException {
+        if (mChannel == null) throw new IOException("capture file closed");
+        int recordSize = RECORD_HEADER_SIZE + len;
+        if (mMap.remaining() < recordSize) {
+            map(mSize, recordSize);
+        }
+        mMap.putLong(time);
+        mMap.putInt(len);
+        mMap.put(buffer, off, len);
+        mSize += recordSize;
+        mRecords++;
+    }
+
+    /**
+     * 記録済みのバイト数 (ファイルヘッダを含む)
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    /**
+     * 記録済みのレコード(受信ブロック)数
+     */
+    public synchronized long getRecordCount() {
+        return mRecords;
+    }
+
+    public File getPath() {
+        return mPath;
+    }
+
+    /**
+     * 記録を終了してファイルを閉じる (余分にマップした末尾は切り詰める)
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mChannel == null) return;
+        mMap.force();
+        mMap = null;
+        mChannel.truncate(mSize);
+        mChannel.close();
+        mFile.close();
+        mChannel = null;
+        mFile = null;
+    }
+
+    /*
+     * pos 以降に少なくとも size byte書き込める領域をマップする
+     */
+    private void map(long pos, int size) throws IOException {
+        if (mMap != null) mMap.force();
+        mMap = mChannel.map(FileChannel.MapMode.READ_WRITE, pos, Math.max(size, mWindowSize));
+        mMap.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+/**
+ * コマンドの応答時間の計測
+ *
+ * コマンドを送信キューに入れた時刻から、そのコマンドの設定で取得されたと見なせる最初のフレームを受信するまでの時間を、
+ * コマンドの種類(R, T, B, C, A, G)毎にlog2ヒストグラムで記録する。
+ * 最初のフレーム = 送信(flush)完了後に受信を開始したフレーム (B/Cは転送モードも一致するもの)。
+ * R0(停止)はフレームが届かないため計測しない。
+ */
+public class CommandLatency implements CommandWriter.Listener {
+
+    public static final String TYPES = "RTBCAG";
+    public static final int NUM_TYPES = 6;
+    public static final int NUM_BUCKETS = 24; // bucket k : [2^k, 2^(k+1)) usec, up to approx. 16sec
+
+    private final long[][] mHistogram = new long[NUM_TYPES][NUM_BUCKETS];
+    private final long[] mCount = new long[NUM_TYPES];
+    private final long[] mSum = new long[NUM_TYPES];   // usec
+    private final long[] mMax = new long[NUM_TYPES];   // usec
+
+    // command waiting for its first frame (0 = none)
+    private final long[] mSendTime = new long[NUM_TYPES];
+    private final long[] mWireTime = new long[NUM_TYPES];
+
+    /**
+     * 送信完了の通知 (CommandWriterスレッドから呼ばれる)
+     */
+    @Override
+    public synchronized void onCommandWritten(byte[] command, long enqueueTime, long wireTime) {
+        if (command.length < 2) return;
+        int type = TYPES.indexOf((char) command[0]);
+        if (type < 0) return;
+        if (command[0] == 'R' && command[1] == '0') {
+            mSendTime[type] = 0; // stop : no frame to wait for
+            return;
+        }
+        mSendTime[type] = enqueueTime;
+        mWireTime[type] = wireTime;
+    }
+
+    /**
+     * フレーム受信の通知 (受信スレッドから呼ばれる)
+     * @param mode 転送モード
+     * @param startTime フレームの最初のサンプルを受信した時刻 (System.nanoTime())
+     * @param endTime フレームの最後のサンプルを受信した時刻
+     */
+    public synchronized void onFrame(int mode, long startTime, long endTime) {
+        for (int type = 0; type < NUM_TYPES; type++) {
+            if (mSendTime[type] == 0 || startTime < mWireTime[type]) continue;
+            if (type == 2 && mode != BluetoothComm.MODE_BURST) continue;      // B
+            if (type == 3 && mode != BluetoothComm.MODE_CONTINUOUS) continue; // C
+            record(type, (endTime - mSendTime[type]) / 1000);
+            mSendTime[type] = 0;
+        }
+    }
+
+    private void record(int type, long usec) {
+        int bucket = 63 - Long.numberOfLeadingZeros(Math.max(usec, 1));
+        mHistogram[type][Math.min(bucket, NUM_BUCKETS - 1)]++;
+        mCount[type]++;
+        mSum[type] += usec;
+        if (usec > mMax[type]) mMax[type] = usec;
+    }
+
+    /**
+     * 計測回数の取得
+     * @param command コマンドの種類 ('R', 'T', 'B', 'C', 'A', 'G')
+     */
+    public synchronized long getCount(char command) {
+        int type = TYPES.indexOf(command);
+        return (type < 0) ? 0 : mCount[type];
+    }
+
+    /**
+     * 応答時間のパーセンタイル (ヒストグラムのbucket上限で近似)
+     * @param command コマンドの種類
+     * @param percent 0-100
+     * @return usec (計測なしの場合0)
+     */
+    public synchronized long getPercentile(char command, double percent) {
+        int type = TYPES.indexOf(command);
+        if (type < 0 || mCount[type] == 0) return 0;
+        long rank = (long) Math.ceil(mCount[type] * percent / 100);
+        long n = 0;
+        for (int k = 0; k < NUM_BUCKETS; k++) {
+            n += mHistogram[type][k];
+            if (n >= Math.max(rank, 1)) return Math.min(1L << (k + 1), mMax[type]);
+        }
+        return mMax[type];
+    }
+
+    /**
+     * 応答時間の最大値
+     * @return usec
+     */
+    public synchronized long getMax(char command) {
+        int type = TYPES.indexOf(command);
+        return (type < 0) ? 0 : mMax[type];
+    }
+
+    /**
+     * 全ての計測結果をCSV形式で出力 (1行1種類, bucketの列はbucket下限のusec)
+     */
+    public synchronized String toCsv() {
+        StringBuilder sb = new StringBuilder("command,count,mean_us,max_us");
+        for (int k = 0; k < NUM_BUCKETS; k++) sb.append(',').append(1L << k);
+        sb.append('\n');
+        for (int type = 0; type < NUM_TYPES; type++) {
+            sb.append(TYPES.charAt(type)).append(',').append(mCount[type]).append(',')
+                    .append((mCount[type] > 0) ? mSum[type] / mCount[type] : 0).append(',').append(mMax[type]);
+            for (int k = 0; k < NUM_BUCKETS; k++) sb.append(',').append(mHistogram[type][k]);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 画面表示用の要約 (3種類で1行, p50/p99 msec)
+     */
+    public String[] describe() {
+        String[] lines = new String[2];
+        for (int line = 0; line < 2; line++) {
+            StringBuilder sb = new StringBuilder("lat p50/p99ms");
+            for (int type = line * 3; type < line * 3 + 3; type++) {
+                char c = TYPES.charAt(type);
+                if (getCount(c) == 0) {
+                    sb.append(' ').append(c).append(" -");
+                }
+                else {
+                    sb.append(String.format(" %c %d/%d", c, getPercentile(c, 50) / 1000, getPercentile(c, 99) / 1000));
+                }
+            }
+            lines[line] = sb.toString();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * コマンド送信スレッド
+ *
+ * 呼び出し元(UIスレッド・描画スレッド)は offer() でキューに入れるだけで、送信の完了を待たない。
+ * 後のコマンドで上書きされるコマンド (同じ種類のR/T/A/G/F, タイムベースを切り替えるB/C) は最新の1つだけを
+ * キュー内の元の位置に残し (単発トリガのR2は1回毎に送信する)、
+ * キューに溜まったコマンドはまとめて1回のwrite+flushで送信する。
+ * キューに入れてから送信(flush完了)までの時間をコマンド毎に記録する。
+ */
+public class CommandWriter extends Thread {
+    private static final String TAG = "CommandWriter";
+    private static final boolean D = false;
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    // keys of the commands superseded by a later one (B and C share the timebase)
+    private static final String COALESCE_KEYS = "RTBAGF";
+    static final int KEY_COUNT = COALESCE_KEYS.length();
+
+    /**
+     * 送信完了の通知先 (CommandWriterスレッド上で呼ばれる)
+     */
+    public interface Listener {
+        /**
+         * @param command 送信したコマンド
+         * @param enqueueTime offer()した時刻 (System.nanoTime())
+         * @param wireTime 送信(flush)が完了した時刻 (System.nanoTime())
+         */
+        void onCommandWritten(byte[] command, long enqueueTime, long wireTime);
+    }
+
+    private final OutputStream mOutputStream;
+    private final Object mLock = new Object();
+
+    // pending commands (FIFO, guarded by mLock)
+    private final byte[][] mCommand;
+    private final long[] mEnqueueTime;
+    private final int[] mKey;
+    private int mCount;
+    private boolean mRunning = true;
+
+    private volatile Listener mListener;
+
+    // statistics
+    private volatile long mWritten;
+    private volatile long mCoalesced;
+    private volatile long mRejected;
+    private volatile long mBatches;
+    private volatile long mLastLatency;
+    private volatile long mMaxLatency;
+    private volatile long mTotalLatency;
+    private final AtomicLongArray mKeyLatency = new AtomicLongArray(COALESCE_KEYS.length());
+
+    /**
+     * Constructor.
+     * @param out 送信先ストリーム
+     * @param capacity キューに保持できるコマンド数
+     */
+    public CommandWriter(OutputStream out, int capacity) {
+        mOutputStream = out;
+        mCommand = new byte[capacity][];
+        mEnqueueTime = new long[capacity];
+        mKey = new int[capacity];
+        setName("CommandWriter");
+    }
+
+    public CommandWriter(OutputStream out) {
+        this(out, DEFAULT_CAPACITY);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * コマンドを送信キューに入れる (ブロックしない)
+     * 同じ種類のコマンドが未送信の場合は、その位置で新しいコマンドに置き換える (他の種類のコマンドとの順序は変えない)
+     * @param command 送信データ ("B1\n" など)
+     * @return キューに入れた場合true、停止済みまたはキューが一杯の場合false
+     */
+    public boolean offer(byte[] command) {
+        final long now = System.nanoTime();
+        final int key = isSingleShot(command) ? -1 : coalesceKey(command);
+        synchronized (mLock) {
+            if (!mRunning) return false;
+            if (key >= 0) {
+                for (int i = 0; i < mCount; i++) {
+                    if (mKey[i] == key) {
+                        // replace in place : the order with the other kinds is kept
+                        mCommand[i] = command;
+                        mEnqueueTime[i] = now;
+                        mCoalesced++;
+                        return true;
+                    }
+                }
+            }
+            if (mCount == mCommand.length) {
+                mRejected++;
+                return false;
+            }
+            mCommand[mCount] = command;
+            mEnqueueTime[mCount] = now;
+            mKey[mCount] = key;
+            mCount++;
+            mLock.notify();
+        }
+        return true;
+    }
+
+    /**
+     * 送信を終了する (キューに残っているコマンドは送信してからスレッドが終了する)
+     */
+    public void close() {
+        synchronized (mLock) {
+            mRunning = false;
+            mLock.notify();
+        }
+    }
+
+    /**
+     * 未送信のコマンド数
+     */
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mCount;
+        }
+    }
+
+    @Override
+    public void run() {
+        final int capacity = mCommand.length;
+        final byte[][] command = new byte[capacity][];
+        final long[] enqueueTime = new long[capacity];
+        final int[] key = new int[capacity];
+        byte[] batch = new byte[256];
+
+        while (true) {
+            int n;
+            synchronized (mLock) {
+                while (mRunning && mCount == 0) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mCount == 0) break; // closed and drained
+                n = mCount;
+                for (int i = 0; i < n; i++) {
+                    command[i] = mCommand[i];
+                    enqueueTime[i] = mEnqueueTime[i];
+                    key[i] = mKey[i];
+                    mCommand[i] = null;
+                }
+                mCount = 0;
+            }
+
+            // one write for the whole batch
+            int len = 0;
+            for (int i = 0; i < n; i++) len += command[i].length;
+            if (len > batch.length) batch = new byte[Math.max(len, batch.length * 2)];
+            int pos = 0;
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(command[i], 0, batch, pos, command[i].length);
+                pos += command[i].length;
+            }
+            try {
+                mOutputStream.write(batch, 0, len);
+                mOutputStream.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Exception during write", e); // connection loss is handled by ConnectedThread
+                break;
+            }
+
+            long wireTime = System.nanoTime();
+            mBatches++;
+            for (int i = 0; i < n; i++) {
+                recordLatency(key[i], wireTime - enqueueTime[i]);
+                Listener listener = mListener;
+                if (listener != null) listener.onCommandWritten(command[i], enqueueTime[i], wireTime);
+                command[i] = null;
+            }
+            if (D) Log.d(TAG, "wrote " + n + " commands, " + len + " bytes");
+        }
+        synchronized (mLock) {
+            mRunning = false;
+            mCount = 0;
+        }
+    }
+
+    private void recordLatency(int key, long latency) {
+        mWritten++;
+        mLastLatency = latency;
+        mTotalLatency += latency;
+        if (latency > mMaxLatency) mMaxLatency = latency;
+        if (key >= 0) mKeyLatency.set(key, latency);
+    }
+
+    /*
+     * 単発トリガ (R2) : 押した回数だけ実行されるよう、上書きしない
+     */
+    private static boolean isSingleShot(byte[] command) {
+        return command.length >= 2 && command[0] == 'R' && command[1] == '2';
+    }
+
+    /*
+     * 上書き対象のコマンドの種類 (1行のコマンドのみ, それ以外は-1)
+     */
+    static int coalesceKey(byte[] command) {
+        if (command.length < 2 || command.length > 4) return -1;
+        for (int i = 1; i < command.length - 1; i++) {
+            if (command[i] == '\n') return -1;
+        }
+        char c = (char) command[0];
+        if (c == 'C') c = 'B';
+        return COALESCE_KEYS.indexOf(c);
+    }
+
+    /*
+     * ---- Statistics (any thread) ----
+     */
+
+    /** 送信したコマンド数 */
+    public long getWrittenCount() {
+        return mWritten;
+    }
+
+    /** 後のコマンドで上書きされて送信しなかったコマンド数 */
+    public long getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    /** キューが一杯で受け付けなかったコマンド数 */
+    public long getRejectedCount() {
+        return mRejected;
+    }
+
+    /** write+flushの回数 */
+    public long getBatchCount() {
+        return mBatches;
+    }
+
+    /** 直前に送信したコマンドの待ち時間 (nsec) */
+    public long getLastLatency() {
+        return mLastLatency;
+    }
+
+    /** 待ち時間の最大値 (nsec) */
+    public long getMaxLatency() {
+        return mMaxLatency;
+    }
+
+    /** 待ち時間の平均値 (nsec) */
+    public long getAverageLatency() {
+        long n = mWritten;
+        return (n > 0) ? mTotalLatency / n : 0;
+    }
+
+    /**
+     * 種類毎に直前に送信したコマンドの待ち時間 (nsec)
+     * @param command コマンドの種類 ('R', 'T', 'B', 'C', 'A', 'G', 'F')
+     * @return 待ち時間 (未送信の場合0)
+     */
+    public long getLastLatency(char command) {
+        int key = COALESCE_KEYS.indexOf(command == 'C' ? 'B' : command);
+        return (key >= 0) ? mKeyLatency.get(key) : 0;
+    }
+}
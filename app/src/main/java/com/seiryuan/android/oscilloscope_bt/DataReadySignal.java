@@ -0,0 +1,112 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 新着データの通知 (coalescing)
+ *
+ * 受信スレッドはフレーム公開毎に signal() を呼ぶ。通知はフラグ1つにまとめられ、
+ * 前回の poll()/await() 以降に何回 signal() されても、待ち合わせ中のスレッドの起床は最大1回となる。
+ * 受信側は poll() で確認するか、await() で待ち合わせる。
+ * リスナーを登録すると、起床と同じタイミング(まとめられた通知を除く)で呼び出される。
+ */
+public class DataReadySignal {
+
+    private final AtomicBoolean mDirty = new AtomicBoolean(false);
+    private volatile int mWaiters = 0;
+    private volatile Runnable mListener;
+
+    // statistics
+    private volatile long mSignals = 0;
+    private volatile long mWakeups = 0;
+
+    /**
+     * 新着データありを通知する (受信スレッドから呼ぶ)
+     */
+    public void signal() {
+        mSignals++; // single writer
+        if (mDirty.getAndSet(true)) return; // already pending : coalesced
+
+        mWakeups++;
+        if (mWaiters > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        Runnable listener = mListener;
+        if (listener != null) listener.run();
+    }
+
+    /**
+     * 新着データの通知先を設定する (描画要求など、受信スレッドから呼ばれるので短い処理にすること)
+     * @param listener 通知先 (nullで解除)
+     */
+    public void setListener(Runnable listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 新着データの有無を確認し、フラグをクリアする
+     * @return 前回の確認以降に signal() されていればtrue
+     */
+    public boolean poll() {
+        return mDirty.get() && mDirty.getAndSet(false);
+    }
+
+    /**
+     * 新着データを待ち合わせる
+     * @param timeoutMs 最大待ち時間 (msec)
+     * @return 新着データがあればtrue、タイムアウトした場合false
+     * @throws InterruptedException 待ち合わせ中に割り込まれた場合
+     */
+    public boolean await(long timeoutMs) throws InterruptedException {
+        if (poll()) return true;
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            mWaiters++;
+            try {
+                while (!mDirty.get()) {
+                    long remain = deadline - System.currentTimeMillis();
+                    if (remain <= 0) break;
+                    wait(remain);
+                }
+            } finally {
+                mWaiters--;
+            }
+        }
+        return poll();
+    }
+
+    /**
+     * signal()の呼び出し回数を取得
+     */
+    public long getSignalCount() {
+        return mSignals;
+    }
+
+    /**
+     * 実際に通知が発生した回数 (まとめられた分を除く) を取得
+     */
+    public long getWakeupCount() {
+        return mWakeups;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.seiryuan.android.oscilloscope_bt;
+
+/**
+ * 表示幅に合わせたサンプルの間引き (min/max envelope)
+ *
+ * サンプル列を表示の列(column)毎に区切り、各列の最小値・最大値の対に縮約する。
+ * 単純な間引きと異なり、1サンプルだけのグリッチも必ず表示に残る。
+ * 列 c には [len * c / columns, len * (c+1) / columns) のサンプルが割り当てられる。
+ */
+public class EnvelopeDecimator {
+
+    private static final int BLOCK = 4096; // samples read from SampleStore at a time
+
+    private final short[] mBlock = new short[BLOCK];
+
+    /**
+     * 配列のサンプルを列毎のmin/maxに縮約する
+     * @param src サンプル値
+     * @param off 先頭位置
+     * @param len サンプル数 (columns以上)
+     * @param columns 列数
+     * @param min 各列の最小値 (columns以上の大きさ)
+     * @param max 各列の最大値 (columns以上の大きさ)
+     */
+    public static void decimate(short[] src, int off, int len, int columns, short[] min, short[] max) {
+        int start = off;
+        for (int c = 0; c < columns; c++) {
+            int end = off + (int) ((long) len * (c + 1) / columns);
+            int lo = src[start];
+            int hi = lo;
+            for (int i = start + 1; i < end; i++) {
+                int v = src[i];
+                if (v < lo) lo = v;
+                if (v > hi) hi = v;
+            }
+            min[c] = (short) lo;
+            max[c] = (short) hi;
+            start = end;
+        }
+    }
+
+    /**
+     * SampleStoreの範囲を列毎のmin/maxに縮約する (BLOCK毎に読み出すため、範囲の大きさに関わらず作業領域は一定)
+     * @param store 読み出し元
+     * @param start 先頭サンプルの通し番号
+     * @param len サンプル数 (columns以上)
+     * @param columns 列数
+     * @param min 各列の最小値
+     * @param max 各列の最大値
+     * @return 縮約できた場合true、範囲が保持されていない場合false
+     */
+    public boolean decimate(SampleStore store, long start, long len, int columns, short[] min, short[] max) {
+        final short[] block = mBlock;
+        long pos = start;
+        for (int c = 0; c < columns; c++) {
+            long end = start + len * (c + 1) / columns;
+            int lo = Integer.MAX_VALUE;
+            int hi = Integer.MIN_VALUE;
+            while (pos < end) {
+                int n = store.read(pos, block, 0, (int) Math.min(BLOCK, end - pos));
+                if (n <= 0) return false;
+                for (int i = 0; i < n; i++) {
+                    int v = block[i];
+                    if (v < lo) lo = v;
+                    if (v > hi) hi = v;
+                }
+                pos += n;
+            }
+            min[c] = (short) lo;
+            max[c] = (short) hi;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FrameSnapshotの受け渡し (triple buffer)
+ *
+ * Producerは getBackBuffer() で取得したバッファに書き込み、publish() で公開する。
+ * Consumerは acquire() で最新の公開済みバッファを取得する。
+ * どちらの操作も待ち合わせ無し(wait-free)で完了し、Consumerが参照中のバッファは上書きされない。
+ */
+public class FrameExchanger {
+
+    private static final int FRESH = 4;      // middle buffer has not been acquired yet
+    private static final int INDEX_MASK = 3;
+
+    private final FrameSnapshot[] mSlot = new FrameSnapshot[3];
+    private final AtomicInteger mMiddle;    // index of middle buffer | FRESH
+    private int mBack;                      // owned by producer
+    private int mFront;                     // owned by consumer
+
+    /**
+     * Constructor.
+     * @param capacity 各バッファに格納できる最大サンプル数 (ヘッダのみの場合は0)
+     */
+    public FrameExchanger(int capacity) {
+        for(int i = 0; i < 3; i++) {
+            mSlot[i] = new FrameSnapshot(capacity);
+        }
+        mFront = 0;
+        mMiddle = new AtomicInteger(1);
+        mBack = 2;
+    }
+
+    /**
+     * 書き込み用バッファの取得 (Producer)
+     */
+    public FrameSnapshot getBackBuffer() {
+        return mSlot[mBack];
+    }
+
+    /**
+     * 書き込み用バッファを公開し、新しい書き込み用バッファに切り替える (Producer)
+     */
+    public void publish() {
+        mBack = mMiddle.getAndSet(mBack | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * 最新のフレームを取得 (Consumer)
+     * 新しいフレームが公開されていない場合は前回と同じバッファを返す
+     * @return 最新のフレーム
+     */
+    public FrameSnapshot acquire() {
+        if ((mMiddle.get() & FRESH) != 0) {
+            mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        }
+        return mSlot[mFront];
+    }
+}
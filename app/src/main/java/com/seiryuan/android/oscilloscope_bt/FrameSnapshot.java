@@ -0,0 +1,65 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+/**
+ * 1画面分の受信データ
+ * 受信スレッドはフレーム完了時にヘッダ情報(samples以外)をFrameExchangerで公開し、
+ * 描画スレッドは BluetoothComm.readFrame() でヘッダとサンプル値を一度に取得する。
+ * 取得した内容は次に readFrame() が新しいフレームを返すまで変化しない。
+ */
+public class FrameSnapshot {
+    public final short[] samples; // sample values in display order
+    public int length;            // number of valid samples
+    public int mode;              // BluetoothComm.MODE_BURST or MODE_CONTINUOUS
+    public int writeIndex;        // cursor position (MODE_CONTINUOUS)
+    public long sequence;         // frame sequence number (0 = no data yet)
+    public long timestamp;        // System.nanoTime() of the read that completed this frame
+    public int bytes;             // bytes received since the previous frame (counted per read block)
+    long end;                     // position in SampleRing just after the last sample
+
+    /**
+     * Constructor.
+     * @param capacity 格納できる最大サンプル数 (ヘッダのみの場合は0)
+     */
+    public FrameSnapshot(int capacity) {
+        samples = new short[capacity];
+        length = 0;
+        mode = BluetoothComm.MODE_BURST;
+        writeIndex = 0;
+        sequence = 0;
+        timestamp = 0;
+        bytes = 0;
+        end = 0;
+    }
+
+    /**
+     * ヘッダ情報をコピーする
+     * @param src コピー元
+     */
+    void copyHeader(FrameSnapshot src) {
+        length = src.length;
+        mode = src.mode;
+        writeIndex = src.writeIndex;
+        sequence = src.sequence;
+        timestamp = src.timestamp;
+        bytes = src.bytes;
+        end = src.end;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * フレームの到着間隔と表示遅れの統計 (lock-free)
+ *
+ * 受信スレッドはフレーム公開毎に recordArrival() を、描画スレッドは描画毎に recordDraw() を呼ぶ。
+ * どちらも直近WINDOW個の値をリングに上書きするだけなので、常に有効にしておける。
+ * 集計(パーセンタイル)は任意のスレッドから必要な時だけ行う。
+ */
+public class FrameTiming {
+
+    public static final int WINDOW = 256; // number of recent samples kept (power of 2)
+
+    // slots in mCount (each has a single writer)
+    private static final int ARRIVALS = 0;
+    private static final int BYTES = 1;
+    private static final int DRAWS = 2;
+
+    private final AtomicLongArray mInterval = new AtomicLongArray(WINDOW);  // nsec between frames (receiving thread)
+    private final AtomicLongArray mStaleness = new AtomicLongArray(WINDOW); // nsec from arrival to draw (render thread)
+    private final AtomicLongArray mCount = new AtomicLongArray(3);
+    private long mLastArrival; // receiving thread only
+
+    /**
+     * フレームの到着を記録 (受信スレッドから呼ぶ)
+     * @param timestamp フレームを完成させたread()の時刻 (System.nanoTime())
+     * @param bytes 前のフレームからの受信バイト数
+     */
+    void recordArrival(long timestamp, int bytes) {
+        long n = mCount.get(ARRIVALS);
+        if (n > 0) mInterval.lazySet((int) (n - 1) & (WINDOW - 1), timestamp - mLastArrival);
+        mLastArrival = timestamp;
+        mCount.lazySet(BYTES, mCount.get(BYTES) + bytes);
+        mCount.lazySet(ARRIVALS, n + 1);
+    }
+
+    /**
+     * 表示中のフレームの遅れを記録 (描画スレッドから呼ぶ)
+     * @param timestamp 表示するフレームのタイムスタンプ
+     * @param now 描画時刻 (System.nanoTime())
+     */
+    public void recordDraw(long timestamp, long now) {
+        long n = mCount.get(DRAWS);
+        mStaleness.lazySet((int) n & (WINDOW - 1), now - timestamp);
+        mCount.lazySet(DRAWS, n + 1);
+    }
+
+    /** 受信したフレーム数 */
+    public long getFrameCount() {
+        return mCount.get(ARRIVALS);
+    }
+
+    /** フレームの受信バイト数の合計 */
+    public long getByteCount() {
+        return mCount.get(BYTES);
+    }
+
+    /**
+     * 直近のフレームレート
+     * @return frames/sec (到着間隔が記録されていない場合0)
+     */
+    public double getFrameRate() {
+        int n = intervals();
+        long sum = 0;
+        for (int i = 0; i < n; i++) sum += mInterval.get(i);
+        return (sum > 0) ? n * 1e9 / sum : 0;
+    }
+
+    /**
+     * 直近の到着間隔のパーセンタイル
+     * @param p 0～100
+     * @return nsec
+     */
+    public long getIntervalPercentile(double p) {
+        return percentile(mInterval, intervals(), p);
+    }
+
+    /**
+     * 直近の描画時の表示遅れ(フレーム到着から描画まで)のパーセンタイル
+     * @param p 0～100
+     * @return nsec
+     */
+    public long getStalenessPercentile(double p) {
+        return percentile(mStaleness, (int) Math.min(mCount.get(DRAWS), WINDOW), p);
+    }
+
+    /**
+     * 表示用の1行
+     */
+    public String describe() {
+        long frames = getFrameCount();
+        return String.format("fps %.1f %dB ia %.1f/%.1fms stale %.1f/%.1fms",
+                getFrameRate(), (frames > 0) ? getByteCount() / frames : 0,
+                getIntervalPercentile(50) / 1e6, getIntervalPercentile(99) / 1e6,
+                getStalenessPercentile(50) / 1e6, getStalenessPercentile(99) / 1e6);
+    }
+
+    private int intervals() {
+        return (int) Math.min(Math.max(mCount.get(ARRIVALS) - 1, 0), WINDOW);
+    }
+
+    private static long percentile(AtomicLongArray values, int n, double p) {
+        if (n == 0) return 0;
+        long[] v = new long[n];
+        for (int i = 0; i < n; i++) v[i] = values.get(i);
+        Arrays.sort(v);
+        int k = (int) Math.ceil(p / 100 * n) - 1;
+        return v[Math.max(0, Math.min(n - 1, k))];
+    }
+}
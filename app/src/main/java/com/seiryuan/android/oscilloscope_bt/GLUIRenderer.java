@@ -36,6 +36,13 @@ class GLUIRenderer implements GLSurfaceView.Renderer {
     private static final String TAG = "OscilloScope";
     private static final boolean D = false;
 
+    // waveform area (virtual pixels) and the number of trace vertices, independent of the frame length
+    private static final float SCOPE_WIDTH = 960f;
+    private static final int SCOPE_COLUMNS = 960;                // 1 column per virtual pixel
+    private static final int SCOPE_POINTS = SCOPE_COLUMNS * 2;   // min/max pair per column
+    private static final long RECORD_VIEW_LEN = 1 << 20;         // initial span of the record view (samples)
+    private static final long RECORD_MIN_SPAN = 32;              // most zoomed-in span of the record view (samples)
+
     private MainActivity m;
     private GLUI glui;
 
@@ -47,12 +54,36 @@ class GLUIRenderer implements GLSurfaceView.Renderer {
     private TextDisp copyright;
 
     private Primitive scope;
-    private LineStrip scope_value;
+    private Waveform scope_value;
     private NinePatch scope_frame;
     private Line scope_grid;
     private Line scope_cursor;
     private NumberDisp scope_digit_v[];
     private NumberDisp scope_digit_h[];
+    private FrameSnapshot scope_data;
+    private float scope_x, scope_y; // scope position (world coordinate)
+    private final RenderScheduler mScheduler;
+
+    // record view (deep memory) : written by touch events, read by the renderer
+    private volatile long record_span = RECORD_VIEW_LEN;
+    private volatile long record_end = -1; // -1 : follow the latest sample
+    private volatile boolean record_dirty = false;
+    private long record_head = -1; // SampleStore.getHead() shown by the last updateRecord()
+    private boolean gesture_active;
+    private float gesture_x;
+    private float gesture_dist;
+    private final short[] env_min = new short[SCOPE_COLUMNS];
+    private final short[] env_max = new short[SCOPE_COLUMNS];
+    private TextDisp diag_text1;
+    private TextDisp diag_text2;
+    private TextDisp diag_text3;
+    private TextDisp diag_text4;
+    private TextDisp diag_text5;
+    private TextDisp diag_text6;
+    private TextDisp diag_text7;
+    private long[] diag_prev = AcquisitionStats.newSnapshot();
+    private long[] diag_cur = AcquisitionStats.newSnapshot();
+    private long diag_time;
 
     private Primitive control;
     private NinePatch control_frame;
@@ -89,9 +120,10 @@ class GLUIRenderer implements GLSurfaceView.Renderer {
     private Button button_gpio_off;
 
 
-    GLUIRenderer(Context context, Activity activity) {
+    GLUIRenderer(Context context, Activity activity, RenderScheduler scheduler) {
 
         m = (MainActivity)activity;
+        mScheduler = scheduler;
 
         //GLUI全体の初期化
         glui = new GLUI(context);
@@ -109,6 +141,10 @@ class GLUIRenderer implements GLSurfaceView.Renderer {
         //テクスチャサイズ(正方形の一辺pixel値, リソース名)
         glui.setTextureSize(1024, com.seiryuan.android.oscilloscope_bt.R.raw.texture);
 
+        //VBOの頂点形式 (2D座標＋正規化UV、バッチは頂点カラーをRGBA各1byteで) 波形はWaveformがADCの値のまま転送
+        glui.setVertexFormat(VertexFormat.COMPACT);
+        glui.setBatchFormat(VertexFormat.COMPACT);
+
         //文字表示フォントの初期化（Width, Height, U, V)
         FontInfo font1 = new FontInfo(22f, 40f, 0f, 0f, 6, 16);
         FontInfo font2 = new FontInfo(14f, 24f, 704f, 240f, 6, 16);
@@ -163,14 +199,32 @@ class GLUIRenderer implements GLSurfaceView.Renderer {
             scope_digit_v[i].setSignedValue(2, GLUI.ZEROSUPPRESS, i-5);
         }
 
-        scope_value = new LineStrip(glui, scope, MainActivity.BUFFER_LEN);
-        scope_value.setTexture(594, 256); // White pixel
+        scope_data = new FrameSnapshot(MainActivity.BUFFER_LEN);
+        scope_value = new Waveform(glui, scope, SCOPE_POINTS);
         scope_value.setColor(0.5f, 1.0f, 0.5f, 1.0f);
+        scope_value.setMapping(-SCOPE_WIDTH / 2, SCOPE_WIDTH);
+        scope_value.setVerticalScale(-1f / 1.06f, 480f); // 10bit code -> y (code 0 at the top)
 
         scope_cursor = new Line(glui, scope, 2);
         scope_cursor.setTexture(594, 256); // White pixel
         scope_cursor.setColor(0.8f, 1.0f, 0.8f, 1.0f);
 
+        // Diagnostics (acquisition statistics)
+        diag_text1 = new TextDisp(glui, scope, font2, -470, -470, 64);
+        diag_text1.setColor(1.0f, 1.0f, 0.5f, 1.0f);
+        diag_text2 = new TextDisp(glui, scope, font2, -470, -444, 64);
+        diag_text2.setColor(1.0f, 1.0f, 0.5f, 1.0f);
+        diag_text3 = new TextDisp(glui, scope, font2, -470, -418, 64);
+        diag_text3.setColor(1.0f, 1.0f, 0.5f, 1.0f);
+        diag_text4 = new TextDisp(glui, scope, font2, -470, -392, 64);
+        diag_text4.setColor(1.0f, 1.0f, 0.5f, 1.0f);
+        diag_text5 = new TextDisp(glui, scope, font2, -470, -366, 64);
+        diag_text5.setColor(1.0f, 1.0f, 0.5f, 1.0f);
+        diag_text6 = new TextDisp(glui, scope, font2, -470, -340, 64);
+        diag_text6.setColor(1.0f, 1.0f, 0.5f, 1.0f);
+        diag_text7 = new TextDisp(glui, scope, font2, -470, -314, 64);
+        diag_text7.setColor(1.0f, 1.0f, 0.5f, 1.0f);
+
         // frame for Buttons
         control = new Primitive(glui, null);
         control.setPosition(0f, 525f);
@@ -251,6 +305,9 @@ class GLUIRenderer implements GLSurfaceView.Renderer {
     @Override
     public void onDrawFrame(GL10 glUnused) {
 
+        // これ以降の描画要求は次のフレームになる
+        mScheduler.onFrame(System.nanoTime());
+
         // フレーム毎の描画初期化
         glui.initDraw();
 
@@ -261,14 +318,24 @@ class GLUIRenderer implements GLSurfaceView.Renderer {
             control.disable();
         }
         else {
+            updateDiagnostics();
             updateItem();
             splash.disable();
             scope.enable();
             control.enable();
         }
 
-        // 登録されたすべてのPrimitiveを描画
-        glui.world.draw();
+        // 表示するフレームの遅れを記録
+        if(m.mDeviceConnected && scope_data.sequence != 0) {
+            m.mBluetoothComm.getFrameTiming().recordDraw(scope_data.timestamp, System.nanoTime());
+        }
+
+        // 登録されたすべてのPrimitiveを描画 (バッチ描画)
+        glui.draw();
+
+        // アニメーション中は次のフレームを要求、受信統計は1秒毎に更新
+        if(glui.isAnimating()) mScheduler.request();
+        else if(m.showDiagnostics && m.mDeviceConnected) mScheduler.requestAfter(1000);
 
     }
 
@@ -276,25 +343,37 @@ class GLUIRenderer implements GLSurfaceView.Renderer {
 
         // 画面の向きをレイアウトに反映
         if(glui.getDispMode() == GLUI.DISP_PORTRAIT) {
-            scope.setPosition(0f, -390f);
+            scope_x = 0f;
+            scope_y = -390f;
             control.setPosition(0f, 525f);
         }
         else {
-            scope.setPosition(-500f, -15f);
+            scope_x = -500f;
+            scope_y = -15f;
             control.setPosition(540f, 0f);
         }
+        scope.setPosition(scope_x, scope_y);
 
         //update scope value
         if(m.mDeviceConnected) {
-            int n = m.mBluetoothComm.getBuffLength();
-            for (int i = 0; i < n; i++) {
-                float x = (float) i * 2 - n;
-                float y = -(float) m.mBluetoothComm.getBuffData(i) / 1.06f + 480f;
-                scope_value.setVertex(i, x, y);
+            // skip vertex update if no new frame has arrived since the last onDrawFrame
+            boolean ready = m.mBluetoothComm.getDataReadySignal().poll();
+            SampleStore store = m.mBluetoothComm.getSampleStore();
+            if(m.showRecord && store != null) { // whole record in deep memory
+                m.mBluetoothComm.getStoreReadySignal().poll(); // the next publish requests a frame again
+                if(store.getHead() != record_head || record_dirty || scope_data.sequence != 0) updateRecord(store);
+                scope_data.sequence = 0; // force update when back to the frame view
+                scope_cursor.disable();
+                return;
             }
+            if(!ready && scope_data.sequence != 0) return;
+            if(!m.mBluetoothComm.readFrame(scope_data)) return;
+
+            int n = scope_data.length;
+            setTrace(scope_data.samples, n);
             //update cursor position
-            if(m.mBluetoothComm.getXferMode() == BluetoothComm.MODE_CONTINUOUS) {
-                float pos = (float)(m.mBluetoothComm.getBuffIndex()*2-n);
+            if(scope_data.mode == BluetoothComm.MODE_CONTINUOUS) {
+                float pos = (float)scope_data.writeIndex * SCOPE_WIDTH / n - SCOPE_WIDTH / 2;
                 scope_cursor.setVertex(0, pos,  -480f);
                 scope_cursor.setVertex(1, pos,  480f);
                 scope_cursor.enable();
@@ -304,13 +383,177 @@ class GLUIRenderer implements GLSurfaceView.Renderer {
             }
         }
         else if(m.demoMode) { //DemoModeで正弦波を表示
-            for (int i = 0; i < m.BUFFER_LEN; i++) {
-                float x = (float) i * 2 - m.BUFFER_LEN;
-                float y = (float)sin((float)i/15f)*300f;
-                scope_value.setVertex(i, x, y);
+            for (int i = 0; i < MainActivity.BUFFER_LEN; i++) {
+                env_min[i] = (short) ((480f - (float)sin((float)i/15f)*300f) * 1.06f);
             }
+            scope_value.setSamples(env_min, 0, MainActivity.BUFFER_LEN);
             scope_cursor.disable();
+            scope_data.sequence = 0; // force update when connected
+        }
+    }
+
+    // 波形の表示 : n個のサンプルを表示幅全体に割り付ける (SCOPE_COLUMNSを超える場合は列毎のmin/maxに縮約する)
+    private void setTrace(short[] samples, int n) {
+        if (n > SCOPE_COLUMNS) {
+            EnvelopeDecimator.decimate(samples, 0, n, SCOPE_COLUMNS, env_min, env_max);
+            setEnvelope(SCOPE_COLUMNS);
+            return;
+        }
+        scope_value.setSamples(samples, 0, n); // raw codes, mapped to the screen by the vertex shader
+    }
+
+    // 列毎のmin/maxを縦線の連続として表示
+    private void setEnvelope(int columns) {
+        scope_value.setEnvelope(env_min, env_max, columns);
+    }
+
+    // deep memoryの表示範囲 (record_span, record_end) を表示 : 範囲の大きさに関わらず O(列数 x log)
+    private void updateRecord(SampleStore store) {
+        record_dirty = false;
+        long head = store.getHead();
+        record_head = head;
+        long end = recordEnd(head);
+        long span = Math.min(record_span, end - store.getFirst());
+        if (span < 2) return;
+        if (span <= SCOPE_COLUMNS) {
+            int n = store.read(end - span, env_min, 0, (int) span);
+            if (n > 0) setTrace(env_min, n);
+        }
+        else if (store.readEnvelope(end - span, span, SCOPE_COLUMNS, env_min, env_max)) {
+            setEnvelope(SCOPE_COLUMNS);
+        }
+    }
+
+    // 表示範囲の終端
+    private long recordEnd(long head) {
+        long end = record_end;
+        return (end < 0 || end > head) ? head : end;
+    }
+
+    // 表示範囲を幅のfraction倍だけ移動 (正: 新しい方向、最新に達したら追従する)
+    private void panRecord(SampleStore store, float fraction) {
+        long head = store.getHead();
+        long end = recordEnd(head) + (long) (fraction * record_span);
+        end = Math.max(end, store.getFirst() + record_span);
+        record_end = (end >= head) ? -1 : end;
+        record_dirty = true;
+    }
+
+    // 表示範囲をfactor倍に拡大縮小 (focus: 固定する位置、表示幅に対する割合)
+    private void zoomRecord(SampleStore store, float factor, float focus) {
+        long head = store.getHead();
+        long span = record_span;
+        double pos = recordEnd(head) - span * (1.0 - focus); // sample under the focus
+        long newSpan = Math.max(RECORD_MIN_SPAN, Math.min((long) (span * factor), head - store.getFirst()));
+        long newEnd = (long) (pos + newSpan * (1.0 - focus));
+        record_span = newSpan;
+        record_end = (newEnd >= head) ? -1 : newEnd;
+        record_dirty = true;
+    }
+
+    // deep memory表示の操作 : 1本指のドラッグで移動、2本指のピンチで拡大縮小
+    private boolean handleRecordGesture(MotionEvent event) {
+        SampleStore store = (m.mBluetoothComm != null) ? m.mBluetoothComm.getSampleStore() : null;
+        if(store == null) return false;
+
+        switch(event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                gesture_x = glui.scaleAdjustX((int) event.getX());
+                float y = glui.scaleAdjustY((int) event.getY());
+                gesture_active = (Math.abs(gesture_x - scope_x) < SCOPE_WIDTH / 2) && (Math.abs(y - scope_y) < SCOPE_WIDTH / 2);
+                gesture_dist = 0;
+                return gesture_active;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                if(gesture_active && event.getPointerCount() == 2) gesture_dist = pointerDistance(event);
+                return gesture_active;
+            case MotionEvent.ACTION_MOVE:
+                if(!gesture_active) return false;
+                if(event.getPointerCount() >= 2 && gesture_dist > 0) {
+                    float dist = pointerDistance(event);
+                    float center = (glui.scaleAdjustX((int) event.getX(0)) + glui.scaleAdjustX((int) event.getX(1))) / 2;
+                    if(dist > 0) zoomRecord(store, gesture_dist / dist, (center - scope_x) / SCOPE_WIDTH + 0.5f);
+                    gesture_dist = dist;
+                }
+                else {
+                    float x = glui.scaleAdjustX((int) event.getX());
+                    panRecord(store, (gesture_x - x) / SCOPE_WIDTH);
+                    gesture_x = x;
+                }
+                return true;
+            case MotionEvent.ACTION_POINTER_UP:
+                if(!gesture_active) return false;
+                // continue dragging with the remaining finger
+                int remain = (event.getActionIndex() == 0) ? 1 : 0;
+                gesture_x = glui.scaleAdjustX((int) event.getX(remain));
+                gesture_dist = 0;
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                boolean active = gesture_active;
+                gesture_active = false;
+                return active;
         }
+        return false;
+    }
+
+    private float pointerDistance(MotionEvent event) {
+        float dx = glui.scaleAdjustX((int) event.getX(0)) - glui.scaleAdjustX((int) event.getX(1));
+        float dy = glui.scaleAdjustY((int) event.getY(0)) - glui.scaleAdjustY((int) event.getY(1));
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    // 受信統計の表示を更新 (1秒毎)
+    private void updateDiagnostics() {
+        if(!m.showDiagnostics || !m.mDeviceConnected) {
+            diag_text1.disable();
+            diag_text2.disable();
+            diag_text3.disable();
+            diag_text4.disable();
+            diag_text5.disable();
+            diag_text6.disable();
+            diag_text7.disable();
+            return;
+        }
+        diag_text1.enable();
+        diag_text2.enable();
+        diag_text3.enable();
+        diag_text4.enable();
+        diag_text5.enable();
+        diag_text6.enable();
+        diag_text7.enable();
+
+        long now = System.nanoTime();
+        if(now - diag_time < 1000000000L) return;
+        m.mBluetoothComm.getStats().snapshot(diag_cur);
+        if(diag_time != 0) {
+            String[] lines = AcquisitionStats.describe(diag_prev, diag_cur, (now - diag_time) / 1e9);
+            diag_text1.setText(lines[0]);
+            diag_text2.setText(lines[1]);
+        }
+        CommandWriter writer = m.mBluetoothComm.getCommandWriter();
+        if(writer != null) {
+            String line = String.format("cmd %d/%d coal %d rej %d lat %.1f/%.1fms", // commands/batches
+                    writer.getWrittenCount(), writer.getBatchCount(), writer.getCoalescedCount(), writer.getRejectedCount(),
+                    writer.getAverageLatency() / 1e6, writer.getMaxLatency() / 1e6);
+            if(m.mBluetoothComm.getReconnectCount() > 0) {
+                line += String.format(" rc %d/%.0fms", m.mBluetoothComm.getReconnectCount(), m.mBluetoothComm.getRecoveryTime() / 1e6);
+            }
+            diag_text3.setText(line);
+        }
+        else if(m.mBluetoothComm.getTeardownTime() >= 0) {
+            diag_text3.setText(String.format("disconnected, teardown %.1fms", m.mBluetoothComm.getTeardownTime() / 1e6));
+        }
+        String[] latency = m.mBluetoothComm.getCommandLatency().describe();
+        diag_text4.setText(latency[0]);
+        diag_text5.setText(latency[1]);
+        diag_text6.setText(m.mBluetoothComm.getFrameTiming().describe());
+        diag_text7.setText(String.format("render %.1ffps %d frames dc %d vtx %d/%d",
+                mScheduler.getFrameRate(), mScheduler.getFrameCount(), glui.getDrawCalls(),
+                glui.getVertexUsed(), glui.getVertexCapacity()));
+        long[] t = diag_prev;
+        diag_prev = diag_cur;
+        diag_cur = t;
+        diag_time = now;
     }
 
     //
@@ -329,6 +572,8 @@ class GLUIRenderer implements GLSurfaceView.Renderer {
     void onTouchEvent(MotionEvent event) {
         float x, y;
 
+        if(m.showRecord && handleRecordGesture(event)) return;
+
         switch ( event.getAction() ) {
             case MotionEvent.ACTION_DOWN:
                 break;
@@ -24,20 +24,30 @@ import android.opengl.GLSurfaceView;
 import android.util.Log;
 import android.view.MotionEvent;
 
-class GLUISurfaceView extends GLSurfaceView {
+class GLUISurfaceView extends GLSurfaceView implements RenderScheduler.Target {
 	
 	public GLUIRenderer mRenderer;
+	public final RenderScheduler mScheduler;
 	
     public GLUISurfaceView(Context context, Activity activity) {
         super(context);
         setEGLContextClientVersion(2);
-        mRenderer = new GLUIRenderer(context, activity);
+        mScheduler = new RenderScheduler(this);
+        mRenderer = new GLUIRenderer(context, activity, mScheduler);
         setRenderer(mRenderer);
+        // 画面を更新する理由がある時だけ描画する (新着データ、タッチ、アニメーション、状態変化)
+        setRenderMode(RENDERMODE_WHEN_DIRTY);
+    }
+
+    // 再描画を要求 (任意のスレッドから呼べる)
+    public void requestFrame() {
+        mScheduler.request();
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         mRenderer.onTouchEvent(event);
+        mScheduler.request();
         return true;
     }
 }
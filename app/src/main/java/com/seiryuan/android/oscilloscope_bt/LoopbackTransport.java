@@ -0,0 +1,118 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * TCP接続 または 任意のストリーム対による通信路
+ * プローブ無しでの負荷試験・シミュレータ接続に使用する (Android APIに依存しない)
+ */
+public class LoopbackTransport implements Transport {
+
+    private final String mHost;
+    private final int mPort;
+    private volatile Socket mSocket;
+    private volatile InputStream mInputStream;
+    private volatile OutputStream mOutputStream;
+
+    /**
+     * Constructor. (TCP接続)
+     * @param host 接続先ホスト名
+     * @param port 接続先ポート番号
+     */
+    public LoopbackTransport(String host, int port) {
+        mHost = host;
+        mPort = port;
+    }
+
+    /**
+     * Constructor. (ストリーム対: パイプなど、再接続はできない)
+     * @param in 受信用ストリーム
+     * @param out 送信用ストリーム
+     */
+    public LoopbackTransport(InputStream in, OutputStream out) {
+        mHost = null;
+        mPort = 0;
+        mInputStream = in;
+        mOutputStream = out;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (mHost == null) {
+            if (mInputStream == null) throw new IOException("stream already closed");
+            return;
+        }
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        mSocket = socket; // close() aborts a pending connect
+        try {
+            socket.connect(new InetSocketAddress(mHost, mPort));
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        mInputStream = socket.getInputStream();
+        mOutputStream = socket.getOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mInputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mOutputStream;
+    }
+
+    @Override
+    public void close() {
+        Socket socket = mSocket;
+        mSocket = null;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+            else {
+                if (mInputStream != null) mInputStream.close();
+                if (mOutputStream != null) mOutputStream.close();
+                mInputStream = null;
+                mOutputStream = null;
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    @Override
+    public String getName() {
+        return (mHost != null) ? mHost + ":" + mPort : "stream";
+    }
+
+    @Override
+    public boolean isReconnectable() {
+        return mHost != null; // stream pair can not be opened again
+    }
+}
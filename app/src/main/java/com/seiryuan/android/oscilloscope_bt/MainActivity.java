@@ -40,6 +40,10 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
 /**
  * This is the main Activity that displays the current chat session.
  */
@@ -61,8 +65,8 @@ public class MainActivity extends Activity {
     public String mConnectedDeviceName = null;
 
     // Message types sent from the BluetoothComm Handler
+    // (received data is notified by BluetoothComm.getDataReadySignal(), not by Handler)
     public static final int MESSAGE_STATE_CHANGE = 1;
-    public static final int MESSAGE_READ_COMPLETE = 2;
     public static final int MESSAGE_WRITE = 3;
     public static final int MESSAGE_DEVICE_NAME = 4;
     public static final int MESSAGE_TOAST = 5;
@@ -80,10 +84,15 @@ public class MainActivity extends Activity {
     public class Preference {
         boolean AutoConnect;
         String DeviceAddr;
+        int Framing; // sample data format (F command)
+        int MemoryDepth; // deep memory budget (MB, 0 : off)
+        int MaxFrameRate; // render frame rate limit (fps, 0 : display refresh)
     }
     public Preference mPref;
 
     public boolean demoMode = false;
+    public boolean showDiagnostics = false; // 受信統計の表示
+    public boolean showRecord = false; // deep memoryの記録全体の表示
 
     // Screen brightness Control
     private PowerManager.WakeLock mWL;
@@ -91,6 +100,9 @@ public class MainActivity extends Activity {
     //
     public static final int BUFFER_LEN = 480;
 
+    // deep memory may use up to 1/MEMORY_DEPTH_HEAP_DIV of the heap (the rest is left to the UI and the receiver)
+    private static final int MEMORY_DEPTH_HEAP_DIV = 4;
+
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -199,6 +211,8 @@ public class MainActivity extends Activity {
                         case BluetoothComm.STATE_CONNECTED:
                             mActionBar.setSubtitle(getString(R.string.title_connected_to, mConnectedDeviceName));
                             mDeviceConnected = true;
+                            // legacy format is the probe default, request the selected format
+                            if(mPref.Framing != 0) MainActivity.this.sendMessage("F" + mPref.Framing + "\n");
                             break;
                         case BluetoothComm.STATE_CONNECTING:
                             mActionBar.setSubtitle(R.string.title_connecting);
@@ -208,11 +222,10 @@ public class MainActivity extends Activity {
                             mDeviceConnected = false;
                             break;
                     }
+                    mView.requestFrame(); // splash <-> scope
                     break;
                 case MESSAGE_WRITE: // not use
                     break;
-                case MESSAGE_READ_COMPLETE: // not use
-                    break;
                 case MESSAGE_DEVICE_NAME: // show the connected device's name
                     mConnectedDeviceName = msg.getData().getString(DEVICE_NAME);
                     Toast.makeText(getApplicationContext(), "Connected to "+mConnectedDeviceName, Toast.LENGTH_SHORT).show();
@@ -229,6 +242,39 @@ public class MainActivity extends Activity {
         Log.d(TAG, "setupBTSession()");
         mBluetoothComm = new BluetoothComm(mHandler);
         mBluetoothComm.initBuffer(BUFFER_LEN);
+        mBluetoothComm.setReconnectPolicy(new ReconnectPolicy());
+        setupSampleStore();
+        // 新しいフレームが届いたら描画 (RENDERMODE_WHEN_DIRTY)
+        mBluetoothComm.getDataReadySignal().setListener(new Runnable() {
+            @Override
+            public void run() {
+                mView.requestFrame();
+            }
+        });
+        // deep memoryの表示中は、記録が伸びたら描画
+        mBluetoothComm.getStoreReadySignal().setListener(new Runnable() {
+            @Override
+            public void run() {
+                if (showRecord) mView.requestFrame();
+            }
+        });
+    }
+
+    // deep memory : the previous record is discarded when the size is changed
+    private void setupSampleStore() {
+        if (mBluetoothComm == null) return;
+        if (mPref.MemoryDepth <= 0) {
+            mBluetoothComm.setSampleStore(null);
+            return;
+        }
+        // chunks are allocated while receiving : limit the budget to the heap of this process
+        long budget = (long) mPref.MemoryDepth << 20;
+        long limit = Runtime.getRuntime().maxMemory() / MEMORY_DEPTH_HEAP_DIV;
+        if (budget > limit) {
+            budget = limit;
+            Toast.makeText(this, "Deep memory is limited to " + (limit >> 20) + "MB", Toast.LENGTH_SHORT).show();
+        }
+        mBluetoothComm.setSampleStore(new SampleStore(budget, true));
     }
 
     // デバイスにデータ送信
@@ -253,6 +299,12 @@ public class MainActivity extends Activity {
             e.putBoolean(PreferenceActivity.PREF_KEY_AUTO_CONNECT, mPref.AutoConnect);
             mPref.DeviceAddr = null;
             e.putString(PreferenceActivity.PREF_KEY_DEVICE_ADDR, mPref.DeviceAddr);
+            mPref.Framing = 0;
+            e.putString(PreferenceActivity.PREF_KEY_FRAMING, "0");
+            mPref.MemoryDepth = 0;
+            e.putString(PreferenceActivity.PREF_KEY_MEMORY_DEPTH, "0");
+            mPref.MaxFrameRate = 0;
+            e.putString(PreferenceActivity.PREF_KEY_MAX_FRAME_RATE, "0");
             e.putBoolean("Launched", true);
             e.apply();
         }
@@ -278,6 +330,28 @@ public class MainActivity extends Activity {
         SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(this);
         mPref.AutoConnect = pref.getBoolean(PreferenceActivity.PREF_KEY_AUTO_CONNECT, mPref.AutoConnect);
         mPref.DeviceAddr = pref.getString(PreferenceActivity.PREF_KEY_DEVICE_ADDR, mPref.DeviceAddr);
+        mPref.Framing = Integer.parseInt(pref.getString(PreferenceActivity.PREF_KEY_FRAMING, "0"));
+        mPref.MemoryDepth = Integer.parseInt(pref.getString(PreferenceActivity.PREF_KEY_MEMORY_DEPTH, "0"));
+        mPref.MaxFrameRate = Integer.parseInt(pref.getString(PreferenceActivity.PREF_KEY_MAX_FRAME_RATE, "0"));
+        mView.mScheduler.setMaxFrameRate(mPref.MaxFrameRate);
+    }
+
+    // コマンド応答時間のヒストグラムをCSVファイルに出力 (アプリ用の外部ストレージ)
+    private void exportDiagnostics() {
+        if (mBluetoothComm == null) return;
+        File file = new File(getExternalFilesDir(null), "latency-" + System.currentTimeMillis() + ".csv");
+        try {
+            FileWriter w = new FileWriter(file);
+            try {
+                w.write(mBluetoothComm.getCommandLatency().toCsv());
+            } finally {
+                w.close();
+            }
+            Toast.makeText(this, "Saved " + file.getPath(), Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Log.e(TAG, "export failed", e);
+            Toast.makeText(this, "Export failed", Toast.LENGTH_SHORT).show();
+        }
     }
 
     // connect request to bluetooth device
@@ -306,7 +380,12 @@ public class MainActivity extends Activity {
                 }
                 break;
             case REQUEST_SETTING:
+                int framing = mPref.Framing;
+                int depth = mPref.MemoryDepth;
                 updatePreference();
+                if(mPref.Framing != framing) sendMessage("F" + mPref.Framing + "\n"); // switch format while connected
+                if(mPref.MemoryDepth != depth) setupSampleStore();
+                mView.requestFrame();
                 break;
             case REQUEST_ENABLE_BT:
                 if (resultCode == Activity.RESULT_OK) {
@@ -331,6 +410,7 @@ public class MainActivity extends Activity {
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         Intent serverIntent = null;
+        mView.requestFrame(); // display modes may change
         switch (item.getItemId()) {
             case R.id.connect:
                 serverIntent = new Intent(this, DeviceListActivity.class);
@@ -342,6 +422,15 @@ public class MainActivity extends Activity {
             case R.id.force_exec:
                 demoMode = true; // Turn into demo mode (without connection)
                 return true;
+            case R.id.diagnostics:
+                showDiagnostics = !showDiagnostics;
+                return true;
+            case R.id.record_view:
+                showRecord = !showRecord;
+                return true;
+            case R.id.export_diagnostics:
+                exportDiagnostics();
+                return true;
             case R.id.setup_app:
                 serverIntent = new Intent(this, PreferenceActivity.class);
                 startActivityForResult(serverIntent, REQUEST_SETTING);
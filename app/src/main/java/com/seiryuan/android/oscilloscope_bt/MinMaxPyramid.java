@@ -0,0 +1,127 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.seiryuan.android.oscilloscope_bt;
+
+/**
+ * SampleStoreの多重解像度 min/max インデックス (mip-map)
+ *
+ * レベルkは 2^(BASE_SHIFT+k) サンプル毎のブロックの最小値・最大値を保持する。
+ * サンプルの追加毎に更新され (償却O(1))、ブロックが揃う毎に1つ上のレベルに伝播する。
+ * 任意の範囲の最小値・最大値は、範囲に収まる最大のブロックを左から順に選んで求めるため、
+ * 範囲の大きさに関わらずO(log)のブロック数と、端の高々2*BASE_SIZEサンプルの参照で済む。
+ * 各レベルはSampleStoreと同じ大きさのリングで、ブロックはSampleStoreが再利用した後に上書きされる。
+ * 追加はSampleStoreのProducerスレッドから、参照はSampleStore.readEnvelope()からのみ行う。
+ */
+class MinMaxPyramid {
+
+    static final int BASE_SHIFT = 5;
+    static final int BASE_SIZE = 1 << BASE_SHIFT; // samples per block of level 0
+
+    private final short[][] mMin;
+    private final short[][] mMax;
+
+    // producer local state
+    private long mCount;  // samples added
+    private int mRunMin = Integer.MAX_VALUE; // current level 0 block
+    private int mRunMax = Integer.MIN_VALUE;
+
+    /**
+     * Constructor.
+     * @param capacity SampleStoreが保持するサンプル数
+     */
+    MinMaxPyramid(long capacity) {
+        int levels = 0;
+        while ((long) BASE_SIZE << levels <= capacity / 2) levels++;
+        mMin = new short[levels][];
+        mMax = new short[levels][];
+        for (int k = 0; k < levels; k++) {
+            long size = (long) BASE_SIZE << k;
+            int entries = (int) ((capacity + size - 1) / size); // covers the whole capacity : never overwrites retained blocks
+            mMin[k] = new short[entries];
+            mMax[k] = new short[entries];
+        }
+    }
+
+    /**
+     * インデックスのメモリ使用量
+     * @return bytes
+     */
+    long getMemoryUsage() {
+        long bytes = 0;
+        for (short[] level : mMin) bytes += level.length * 4L; // min + max
+        return bytes;
+    }
+
+    /**
+     * サンプルを1つ追加する (SampleStoreに格納した順に呼ぶ)
+     */
+    void add(int value) {
+        if (value < mRunMin) mRunMin = value;
+        if (value > mRunMax) mRunMax = value;
+        long count = ++mCount;
+        if ((count & (BASE_SIZE - 1)) != 0) return;
+
+        // level 0 block completed : propagate while the block is the second of a pair
+        long block = (count >>> BASE_SHIFT) - 1;
+        int lo = mRunMin;
+        int hi = mRunMax;
+        mRunMin = Integer.MAX_VALUE;
+        mRunMax = Integer.MIN_VALUE;
+        for (int k = 0; k < mMin.length; k++) {
+            int slot = (int) (block % mMin[k].length);
+            mMin[k][slot] = (short) lo;
+            mMax[k][slot] = (short) hi;
+            if ((block & 1) == 0 || k + 1 == mMin.length) break;
+            int sibling = (int) ((block - 1) % mMin[k].length);
+            lo = Math.min(lo, mMin[k][sibling]);
+            hi = Math.max(hi, mMax[k][sibling]);
+            block >>>= 1;
+        }
+    }
+
+    /**
+     * 範囲の最小値・最大値 (範囲は公開済みで、保持されていること)
+     * @param store サンプルの参照先 (ブロックの端数部分)
+     * @param lo 先頭サンプルの通し番号
+     * @param hi 最後のサンプルの次の通し番号 (lo < hi)
+     * @return (min << 16) | max
+     */
+    int minMax(SampleStore store, long lo, long hi) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long p = lo;
+        while (p < hi) {
+            if ((p & (BASE_SIZE - 1)) != 0 || hi - p < BASE_SIZE) {
+                int v = store.get(p++); // fraction of a level 0 block
+                if (v < min) min = v;
+                if (v > max) max = v;
+                continue;
+            }
+            // the largest block starting at p and ending within the range
+            int k = Math.min(mMin.length - 1, Long.numberOfTrailingZeros(p) - BASE_SHIFT);
+            while (hi - p < (long) BASE_SIZE << k) k--;
+            int slot = (int) ((p >>> (BASE_SHIFT + k)) % mMin[k].length);
+            if (mMin[k][slot] < min) min = mMin[k][slot];
+            if (mMax[k][slot] > max) max = mMax[k][slot];
+            p += (long) BASE_SIZE << k;
+        }
+        return (min << 16) | max;
+    }
+}
@@ -23,12 +23,16 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
+import android.preference.ListPreference;
 import android.preference.PreferenceFragment;
 import android.preference.SwitchPreference;
 
 public class PreferenceActivity extends Activity {
     public static final String PREF_KEY_AUTO_CONNECT = "auto_connect";
     public static final String PREF_KEY_DEVICE_ADDR = "device_addr";
+    public static final String PREF_KEY_FRAMING = "framing";
+    public static final String PREF_KEY_MEMORY_DEPTH = "memory_depth";
+    public static final String PREF_KEY_MAX_FRAME_RATE = "max_frame_rate";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -53,6 +57,15 @@ public class PreferenceActivity extends Activity {
 
             EditTextPreference prefDeviceAddr = (EditTextPreference)findPreference(PREF_KEY_DEVICE_ADDR);
             prefDeviceAddr.setSummary(prefDeviceAddr.getText());
+
+            ListPreference prefFraming = (ListPreference)findPreference(PREF_KEY_FRAMING);
+            prefFraming.setSummary(prefFraming.getEntry());
+
+            ListPreference prefMemoryDepth = (ListPreference)findPreference(PREF_KEY_MEMORY_DEPTH);
+            prefMemoryDepth.setSummary(prefMemoryDepth.getEntry());
+
+            ListPreference prefMaxFrameRate = (ListPreference)findPreference(PREF_KEY_MAX_FRAME_RATE);
+            prefMaxFrameRate.setSummary(prefMaxFrameRate.getEntry());
         }
 
         @Override
@@ -81,6 +94,11 @@ public class PreferenceActivity extends Activity {
                     	pref.setSummary(pref.getSwitchTextOff());                   	
                     }
                 }
+                else if (key.equals(PREF_KEY_FRAMING) || key.equals(PREF_KEY_MEMORY_DEPTH)
+                        || key.equals(PREF_KEY_MAX_FRAME_RATE)) {
+                    ListPreference pref = (ListPreference)findPreference(key);
+                    pref.setSummary(pref.getEntry());
+                }
             }
         };
     }
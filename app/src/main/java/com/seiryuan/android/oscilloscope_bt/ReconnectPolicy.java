@@ -0,0 +1,83 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.util.Random;
+
+/**
+ * 切断時の自動再接続の方針 (jitter付き指数バックオフ)
+ *
+ * n回目(0～)の試行前の待ち時間は min(maxDelay, baseDelay * 2^n) の後半半分からランダムに選ぶ。
+ * 複数の端末が同時に切断された場合でも、再接続の試行が同じ時刻に集中しない。
+ */
+public class ReconnectPolicy {
+
+    public static final long DEFAULT_BASE_DELAY_MS = 250;
+    public static final long DEFAULT_MAX_DELAY_MS = 8000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final int mMaxAttempts;
+    private final Random mRandom;
+
+    /**
+     * Constructor. (既定値)
+     */
+    public ReconnectPolicy() {
+        this(DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_MAX_ATTEMPTS, new Random());
+    }
+
+    /**
+     * Constructor.
+     * @param baseDelayMs 初回の待ち時間の上限 (msec)
+     * @param maxDelayMs 待ち時間の上限 (msec)
+     * @param maxAttempts 試行回数の上限 (これを超えたら再接続をあきらめる)
+     * @param random 乱数 (試験用にseedを固定できる)
+     */
+    public ReconnectPolicy(long baseDelayMs, long maxDelayMs, int maxAttempts, Random random) {
+        mBaseDelay = baseDelayMs;
+        mMaxDelay = maxDelayMs;
+        mMaxAttempts = maxAttempts;
+        mRandom = random;
+    }
+
+    /**
+     * 再接続を試行するか
+     * @param attempt 試行回数 (0～)
+     */
+    public boolean shouldRetry(int attempt) {
+        return attempt < mMaxAttempts;
+    }
+
+    /**
+     * 試行前の待ち時間を取得
+     * @param attempt 試行回数 (0～)
+     * @return msec
+     */
+    public long getDelay(int attempt) {
+        long delay = mMaxDelay;
+        if (attempt < 30 && (mBaseDelay << attempt) < mMaxDelay) delay = mBaseDelay << attempt;
+        long half = delay / 2;
+        synchronized (mRandom) {
+            return half + (long) (mRandom.nextDouble() * (delay - half));
+        }
+    }
+}
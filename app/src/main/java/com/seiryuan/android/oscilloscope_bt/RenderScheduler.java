@@ -0,0 +1,139 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+/**
+ * 描画要求のスケジューラ (GLSurfaceView.RENDERMODE_WHEN_DIRTY用)
+ *
+ * 新着データ・タッチ・アニメーションなど、画面を更新する理由がある時だけ request() で描画を要求する。
+ * 要求は次のフレームまでにまとめられ、最大フレームレートを超える場合は次に描画できる時刻まで遅らせる。
+ * 何も起きていない間はフレームを描画しないため、待機中の描画コストはほぼゼロになる。
+ * request() は任意のスレッドから呼べる。
+ */
+public class RenderScheduler {
+
+    /**
+     * 描画の対象 (GLSurfaceViewが実装するメソッドと同じ)
+     */
+    public interface Target {
+        void requestRender();
+        boolean postDelayed(Runnable action, long delayMillis);
+    }
+
+    private static final long NONE = Long.MAX_VALUE;
+    private static final long RATE_WINDOW = 1000000000L; // nsec for the frame rate readout
+
+    private final Target mTarget;
+    private long mMinInterval;      // nsec between frames (0 : no limit)
+    private long mRequestAt = NONE; // earliest requested frame time (nsec)
+    private long mLastFrame;
+
+    // frame rate readout (render thread)
+    private long mRateStart;
+    private int mRateFrames;
+    private volatile float mFrameRate;
+    private volatile long mFrameCount;
+
+    private final Runnable mFire = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (RenderScheduler.this) {
+                // a frame has been drawn since, or an earlier request has replaced this one
+                if (mRequestAt == NONE || System.nanoTime() < mRequestAt - 1000000L) return;
+            }
+            mTarget.requestRender();
+        }
+    };
+
+    public RenderScheduler(Target target) {
+        mTarget = target;
+    }
+
+    /**
+     * 最大フレームレートの設定
+     * @param fps フレーム/秒 (0 : 制限しない)
+     */
+    public synchronized void setMaxFrameRate(int fps) {
+        mMinInterval = (fps > 0) ? 1000000000L / fps : 0;
+    }
+
+    /**
+     * できるだけ早く描画する (最大フレームレートの範囲で)
+     */
+    public void request() {
+        requestAt(System.nanoTime());
+    }
+
+    /**
+     * 指定時間後に描画する (それより早い要求があればそちらで描画される)
+     * @param delayMs 遅延時間 (msec)
+     */
+    public void requestAfter(long delayMs) {
+        requestAt(System.nanoTime() + delayMs * 1000000L);
+    }
+
+    private void requestAt(long time) {
+        long wait;
+        synchronized (this) {
+            time = Math.max(time, mLastFrame + mMinInterval);
+            if (time >= mRequestAt) return; // coalesced into the pending request
+            mRequestAt = time;
+            wait = time - System.nanoTime();
+        }
+        if (wait <= 0) {
+            mTarget.requestRender();
+        }
+        else {
+            mTarget.postDelayed(mFire, (wait + 999999L) / 1000000L);
+        }
+    }
+
+    /**
+     * フレームの描画開始を通知する (描画スレッドのonDrawFrame()の先頭で呼ぶ)
+     * これ以降の要求は次のフレームになる
+     * @param now 現在時刻 (System.nanoTime())
+     */
+    public void onFrame(long now) {
+        synchronized (this) {
+            mLastFrame = now;
+            mRequestAt = NONE;
+        }
+        mFrameCount++; // single writer
+        mRateFrames++;
+        if (now - mRateStart >= RATE_WINDOW) {
+            mFrameRate = (mRateStart == 0) ? 0f : mRateFrames * 1e9f / (now - mRateStart);
+            mRateStart = now;
+            mRateFrames = 0;
+        }
+    }
+
+    /**
+     * 直近の描画フレームレート (フレーム/秒)
+     */
+    public float getFrameRate() {
+        return mFrameRate;
+    }
+
+    /**
+     * 描画したフレーム数
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * キャプチャファイル(CaptureFile)を再生する通信路
+ *
+ * 記録された受信ブロックを、記録時と同じ区切り・同じ間隔(またはspeed倍速、待ち無し)で入力ストリームに返す。
+ * 送信(コマンド)は破棄する。記録の終端で入力ストリームは終了(-1)となる。
+ */
+public class ReplayTransport implements Transport {
+
+    private final File mPath;
+    private final double mSpeed;
+    private volatile ReplayStream mInputStream;
+
+    private static final OutputStream DISCARD_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    /**
+     * Constructor.
+     * @param path キャプチャファイル
+     * @param speed 再生速度 (1.0で記録時と同じ間隔, 10で10倍速, 0で待ち無し)
+     */
+    public ReplayTransport(File path, double speed) {
+        mPath = path;
+        mSpeed = speed;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        mInputStream = new ReplayStream(mPath, mSpeed);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mInputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return DISCARD_OUTPUT;
+    }
+
+    @Override
+    public void close() {
+        ReplayStream in = mInputStream;
+        if (in != null) in.close();
+    }
+
+    @Override
+    public String getName() {
+        return "replay:" + mPath.getName();
+    }
+
+    @Override
+    public boolean isReconnectable() {
+        return false; // connect() would restart the capture from the beginning
+    }
+
+    /*
+     * 記録されたブロックを時刻に合わせて返す入力ストリーム
+     */
+    private static class ReplayStream extends InputStream {
+        private final MappedByteBuffer mMap;
+        private final double mSpeed;
+        private long mFirstTime;
+        private long mStartTime;
+        private int mRemaining; // bytes left in the current record
+        private volatile boolean mClosed;
+
+        ReplayStream(File path, double speed) throws IOException {
+            RandomAccessFile file = new RandomAccessFile(path, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                if (channel.size() > Integer.MAX_VALUE) throw new IOException("capture file too large");
+                mMap = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                file.close(); // mapping stays valid
+            }
+            mMap.order(ByteOrder.LITTLE_ENDIAN);
+            if (mMap.remaining() < CaptureFile.FILE_HEADER_SIZE || mMap.getLong() != CaptureFile.MAGIC) {
+                throw new IOException("not a capture file: " + path);
+            }
+            mSpeed = speed;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (mClosed) throw new IOException("stream closed");
+            if (len == 0) return 0;
+            if (mRemaining == 0) {
+                if (mMap.remaining() < CaptureFile.RECORD_HEADER_SIZE) return -1;
+                long time = mMap.getLong();
+                mRemaining = mMap.getInt();
+                if (mRemaining > mMap.remaining()) return -1; // truncated record
+                waitUntil(time);
+            }
+            int n = Math.min(len, mRemaining);
+            mMap.get(b, off, n);
+            mRemaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return mRemaining;
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+        }
+
+        /*
+         * 記録時刻に対応する再生時刻まで待つ
+         */
+        private void waitUntil(long time) throws IOException {
+            long now = System.nanoTime();
+            if (mStartTime == 0) {
+                mFirstTime = time;
+                mStartTime = now;
+            }
+            if (mSpeed <= 0) return;
+            long target = mStartTime + (long) ((time - mFirstTime) / mSpeed);
+            while (now < target) {
+                if (mClosed) throw new IOException("stream closed");
+                LockSupport.parkNanos(Math.min(target - now, 10000000L));
+                now = System.nanoTime();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+/**
+ * Bluetooth SPP(RFCOMM)による通信路
+ */
+public class RfcommTransport implements Transport {
+    // for Debugging
+    private static final String TAG = "BTCOMM";
+
+    // Unique UUID for SPP profile
+    private static final UUID SPP_UUID =
+            UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private final BluetoothDevice mDevice;
+    private volatile BluetoothSocket mSocket;
+
+    /**
+     * Constructor.
+     * @param device 接続するBluetoothDevice
+     */
+    public RfcommTransport(BluetoothDevice device) {
+        mDevice = device;
+        mSocket = null;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        BluetoothSocket socket = mDevice.createInsecureRfcommSocketToServiceRecord(SPP_UUID);
+
+        // Always cancel discovery because it will slow down a connection
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter != null) adapter.cancelDiscovery();
+
+        mSocket = socket;
+        try {
+            socket.connect();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    @Override
+    public void close() {
+        BluetoothSocket socket = mSocket;
+        mSocket = null;
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close() of connect socket failed", e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return mDevice.getName();
+    }
+
+    @Override
+    public boolean isReconnectable() {
+        return true;
+    }
+
+    /**
+     * 接続先のBluetoothDeviceを取得
+     */
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+/**
+ * SPP受信データのデコーダ
+ * ConnectedThreadから受信バイト列のフレーミング処理を分離したもの。
+ * read()の区切りをまたいでHigh byteを保持し、1バイト毎・1フレーム毎のメモリ確保は行わない。
+ * Android APIに依存しないため、JVM上のテストからも利用できる。
+ *
+ * 従来形式(1サンプル2byte)に加えて、Packed形式(F1コマンドで切り替え)を受け付ける。
+ * Packed形式: [0xe0|type][count low][count high] の後に4サンプル毎5byte (10bit x 4 をlittle endianで詰める)。
+ * type 1:Burst-EOR, 2:Continuous-EOS, 3:Continuous-EOR (最後のサンプルにマーカーが付く)。
+ * Delta形式(F2コマンド): [0xe8|type][count low][count high] の後に1サンプル毎4bitの差分(-7〜+7, 上位nibbleから)。
+ * 差分が範囲外のサンプルはescape nibble(0x8)に続く3nibbleで値そのものを送る。各フレームの先頭は必ずescapeで始まる。
+ * ヘッダで自己記述されるため、デコーダ側は形式の切り替えを意識しない。
+ */
+public class SampleDecoder {
+
+    // Frame markers passed to Callback.onFrame()
+    public static final int MARKER_END_OF_RECORD = 1; // Burst-EOR / Continuous-EOR
+    public static final int MARKER_END_OF_SWEEP = 2;  // Continuous-EOS
+
+    // Opcodes (indexed by received byte)
+    private static final byte OP_IGNORE = 0;
+    private static final byte OP_HIGH = 1;
+    private static final byte OP_BURST = 2;
+    private static final byte OP_BURST_EOR = 3;
+    private static final byte OP_CONT = 4;
+    private static final byte OP_CONT_EOS = 5;
+    private static final byte OP_CONT_EOR = 6;
+    private static final byte OP_DISCARD = 7;
+    private static final byte OP_PACKED = 8;
+    private static final byte OP_DELTA = 9;
+
+    // Packed frame types (low 3bits of the header byte)
+    public static final int PACKED_HEADER = 0xe0;
+    public static final int DELTA_HEADER = 0xe8;
+    public static final int DELTA_ESCAPE = 0x8;
+    public static final int PACKED_BURST_EOR = 1;
+    public static final int PACKED_CONT_EOS = 2;
+    public static final int PACKED_CONT_EOR = 3;
+
+    // Packed frame parser state
+    private static final int STATE_LEGACY = 0;
+    private static final int STATE_COUNT_LOW = 1;
+    private static final int STATE_COUNT_HIGH = 2;
+    private static final int STATE_PAYLOAD = 3;
+    private static final int STATE_DELTA = 4;
+
+    private static final byte[] OPCODE = new byte[256];
+    static {
+        for(int b = 0; b < 256; b++) {
+            switch(b & 0xe0) {
+                case 0x00: OPCODE[b] = OP_HIGH; break;      // High Byte (common)
+                case 0x20: OPCODE[b] = OP_BURST; break;     // Burst-Low byte
+                case 0x40: OPCODE[b] = OP_BURST_EOR; break; // Burst-EOR
+                case 0x60: OPCODE[b] = OP_CONT; break;      // Continuous-Low byte
+                case 0x80: OPCODE[b] = OP_CONT_EOS; break;  // Continuous-EOS
+                case 0xa0: OPCODE[b] = OP_CONT_EOR; break;  // Continuous-EOR
+                case 0xc0: OPCODE[b] = OP_DISCARD; break;   // Force Discard
+                default:   OPCODE[b] = OP_IGNORE; break;
+            }
+        }
+        for(int t = PACKED_BURST_EOR; t <= PACKED_CONT_EOR; t++) {
+            OPCODE[PACKED_HEADER | t] = OP_PACKED;          // Packed frame header
+            OPCODE[DELTA_HEADER | t] = OP_DELTA;            // Delta frame header
+        }
+    }
+
+    /**
+     * デコード結果の通知先
+     * 各メソッドは feed() を呼び出したスレッド上で呼ばれる
+     */
+    public interface Callback {
+        /**
+         * 1サンプル受信
+         * @param mode 転送モード (BluetoothComm.MODE_BURST または MODE_CONTINUOUS)
+         * @param value サンプル値 (10bit)
+         */
+        void onSample(int mode, int value);
+
+        /**
+         * フレーム区切りの受信 (同じバイトのサンプルを onSample() で通知した後に呼ばれる)
+         * @param mode 転送モード
+         * @param marker MARKER_END_OF_RECORD または MARKER_END_OF_SWEEP
+         */
+        void onFrame(int mode, int marker);
+
+        /**
+         * Force Discard の受信
+         */
+        void onDiscard();
+    }
+
+    private final Callback mCallback;
+    private int mHigh; // upper 5bits of the current sample (already shifted)
+    private boolean mPending; // High byte received, waiting for Low byte
+    private long mOrphans;
+    private long mUnknown;
+
+    // packed frame in progress
+    private int mState = STATE_LEGACY;
+    private int mPackedType;
+    private int mPackedMode;
+    private int mRemain;   // samples left in the frame
+    private long mBits;    // partial 5byte group
+    private int mBitBytes; // bytes in mBits
+    private boolean mDelta; // delta coded payload
+    private int mPrev;      // last delta decoded sample
+    private int mEscape;    // nibbles left in the escaped value
+    private int mEscValue;
+
+    /**
+     * Constructor.
+     * @param callback デコード結果の通知先
+     */
+    public SampleDecoder(Callback callback) {
+        mCallback = callback;
+        mHigh = 0;
+    }
+
+    /**
+     * デコード状態を初期化 (接続開始時などに使用)
+     */
+    public void reset() {
+        mHigh = 0;
+        mPending = false;
+        mState = STATE_LEGACY;
+        mBitBytes = 0;
+        mEscape = 0;
+    }
+
+    /**
+     * 対になるHigh/Low byteが無かったバイト数の取得
+     * (High byteが連続した場合の前のHigh byte、High byte無しで受信したLow byte)
+     */
+    public long getOrphanCount() {
+        return mOrphans;
+    }
+
+    /**
+     * 未定義のバイト(Packed/Deltaヘッダ以外の0xe0-0xff)の数の取得
+     */
+    public long getUnknownCount() {
+        return mUnknown;
+    }
+
+    /**
+     * 受信データをデコードする
+     * @param buffer 受信データ
+     * @param offset 先頭位置
+     * @param length バイト数
+     */
+    public void feed(byte[] buffer, int offset, int length) {
+        final int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            switch (mState) {
+                case STATE_LEGACY:
+                    i = feedLegacy(buffer, i, end);
+                    break;
+                case STATE_DELTA:
+                    i = feedDelta(buffer, i, end);
+                    break;
+                default:
+                    i = feedPacked(buffer, i, end);
+                    break;
+            }
+        }
+    }
+
+    /*
+     * 従来形式のデコード (Packed/Deltaヘッダを受信したらその次の位置を返す)
+     */
+    private int feedLegacy(byte[] buffer, int offset, int end) {
+        final Callback cb = mCallback;
+        int high = mHigh;
+        boolean pending = mPending;
+        int orphans = 0;
+
+        int i = offset;
+        while (i < end) {
+            final int b = buffer[i++];
+            final int op = OPCODE[b & 0xff];
+            if (op == OP_HIGH) {
+                if (pending) orphans++; // previous High byte lost its Low byte
+                high = (b & 0x1f) << 5;
+                pending = true;
+                continue;
+            }
+            if (op >= OP_BURST && op <= OP_CONT_EOR) {
+                if (!pending) orphans++; // Low byte without High byte (decoded with the last High byte)
+                pending = false;
+            }
+            switch(op) {
+                case OP_BURST:
+                    cb.onSample(BluetoothComm.MODE_BURST, high | (b & 0x1f));
+                    break;
+                case OP_BURST_EOR:
+                    cb.onSample(BluetoothComm.MODE_BURST, high | (b & 0x1f));
+                    cb.onFrame(BluetoothComm.MODE_BURST, MARKER_END_OF_RECORD);
+                    break;
+                case OP_CONT:
+                    cb.onSample(BluetoothComm.MODE_CONTINUOUS, high | (b & 0x1f));
+                    break;
+                case OP_CONT_EOS:
+                    cb.onSample(BluetoothComm.MODE_CONTINUOUS, high | (b & 0x1f));
+                    cb.onFrame(BluetoothComm.MODE_CONTINUOUS, MARKER_END_OF_SWEEP);
+                    break;
+                case OP_CONT_EOR:
+                    cb.onSample(BluetoothComm.MODE_CONTINUOUS, high | (b & 0x1f));
+                    cb.onFrame(BluetoothComm.MODE_CONTINUOUS, MARKER_END_OF_RECORD);
+                    break;
+                case OP_DISCARD:
+                    cb.onDiscard();
+                    break;
+                case OP_PACKED:
+                case OP_DELTA:
+                    if (pending) orphans++;
+                    pending = false;
+                    mDelta = (op == OP_DELTA);
+                    mPackedType = b & 0x07;
+                    mPackedMode = (mPackedType == PACKED_BURST_EOR) ? BluetoothComm.MODE_BURST : BluetoothComm.MODE_CONTINUOUS;
+                    mState = STATE_COUNT_LOW;
+                    end = i; // leave the loop
+                    break;
+                default:
+                    mUnknown++;
+                    break;
+            }
+        }
+        mHigh = high;
+        mPending = pending;
+        mOrphans += orphans;
+        return i;
+    }
+
+    /*
+     * Packed/Delta形式のヘッダ(サンプル数)の読み出しと、Packed形式のデコード (フレームの終わりまたはバッファの終わりまで)
+     */
+    private int feedPacked(byte[] buffer, int offset, int end) {
+        int i = offset;
+        if (mState == STATE_COUNT_LOW) {
+            mRemain = buffer[i++] & 0xff;
+            mState = STATE_COUNT_HIGH;
+            if (i >= end) return i;
+        }
+        if (mState == STATE_COUNT_HIGH) {
+            mRemain |= (buffer[i++] & 0xff) << 8;
+            mState = mDelta ? STATE_DELTA : STATE_PAYLOAD;
+            mBitBytes = 0;
+            mEscape = 0;
+            if (mRemain == 0) {
+                endPacked();
+                return i;
+            }
+            if (mDelta) return i;
+        }
+
+        final Callback cb = mCallback;
+        final int mode = mPackedMode;
+        int remain = mRemain;
+
+        // complete the group left by the previous read
+        if (mBitBytes > 0) {
+            while (mBitBytes < 5 && i < end) {
+                mBits |= (long) (buffer[i++] & 0xff) << (mBitBytes * 8);
+                mBitBytes++;
+            }
+            if (mBitBytes < 5) return i;
+            remain = emitGroup(cb, mode, mBits, remain);
+            mBitBytes = 0;
+        }
+
+        // whole groups in the buffer
+        while (remain > 0 && end - i >= 5) {
+            long bits = (buffer[i] & 0xffL)
+                    | (buffer[i + 1] & 0xffL) << 8
+                    | (buffer[i + 2] & 0xffL) << 16
+                    | (buffer[i + 3] & 0xffL) << 24
+                    | (buffer[i + 4] & 0xffL) << 32;
+            i += 5;
+            if (remain >= 4) {
+                cb.onSample(mode, (int) bits & 0x3ff);
+                cb.onSample(mode, (int) (bits >>> 10) & 0x3ff);
+                cb.onSample(mode, (int) (bits >>> 20) & 0x3ff);
+                cb.onSample(mode, (int) (bits >>> 30) & 0x3ff);
+                remain -= 4;
+            }
+            else {
+                remain = emitGroup(cb, mode, bits, remain);
+            }
+        }
+
+        // keep the partial group for the next read
+        if (remain > 0) {
+            mBits = 0;
+            while (i < end) {
+                mBits |= (long) (buffer[i++] & 0xff) << (mBitBytes * 8);
+                mBitBytes++;
+            }
+            mRemain = remain;
+            return i;
+        }
+        mRemain = 0;
+        endPacked();
+        return i;
+    }
+
+    /*
+     * Delta形式のデコード (フレームの終わりまたはバッファの終わりまで)
+     * 1byteの2nibbleは常に同じ呼び出しで処理するため、nibble単位の状態はescape中の値のみ保持する
+     */
+    private int feedDelta(byte[] buffer, int offset, int end) {
+        final Callback cb = mCallback;
+        final int mode = mPackedMode;
+        int remain = mRemain;
+        int prev = mPrev;
+        int escape = mEscape;
+        int value = mEscValue;
+
+        int i = offset;
+        while (remain > 0 && i < end) {
+            final int b = buffer[i++];
+            for (int shift = 4; shift >= 0; shift -= 4) {
+                final int nibble = (b >> shift) & 0xf;
+                if (escape > 0) {
+                    value = (value << 4) | nibble;
+                    if (--escape > 0) continue;
+                    prev = value & 0x3ff;
+                }
+                else if (nibble == DELTA_ESCAPE) {
+                    escape = 3;
+                    value = 0;
+                    continue;
+                }
+                else {
+                    prev = (prev + ((nibble << 28) >> 28)) & 0x3ff; // sign extend 4bit
+                }
+                cb.onSample(mode, prev);
+                if (--remain == 0) break; // rest of the byte is padding
+            }
+        }
+        mPrev = prev;
+        mEscape = escape;
+        mEscValue = value;
+        mRemain = remain;
+        if (remain == 0) endPacked();
+        return i;
+    }
+
+    private static int emitGroup(Callback cb, int mode, long bits, int remain) {
+        int n = Math.min(remain, 4);
+        for (int k = 0; k < n; k++) {
+            cb.onSample(mode, (int) (bits >>> (k * 10)) & 0x3ff);
+        }
+        return remain - n;
+    }
+
+    private void endPacked() {
+        mState = STATE_LEGACY;
+        switch (mPackedType) {
+            case PACKED_BURST_EOR:
+                mCallback.onFrame(BluetoothComm.MODE_BURST, MARKER_END_OF_RECORD);
+                break;
+            case PACKED_CONT_EOS:
+                mCallback.onFrame(BluetoothComm.MODE_CONTINUOUS, MARKER_END_OF_SWEEP);
+                break;
+            default:
+                mCallback.onFrame(BluetoothComm.MODE_CONTINUOUS, MARKER_END_OF_RECORD);
+                break;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * サンプル値のリングバッファ (Single Producer / Single Consumer, lock-free)
+ *
+ * Producer(受信スレッド)は put() でサンプルを書き込み、publish() でまとめて公開する (release)。
+ * Consumer(描画スレッド)は readLatest() で公開済みの最新Nサンプルを一括コピーする (acquire)。
+ * Producerは通常は最も古いサンプルを上書きする (Consumerが読み出しを止めてもProducerは止まらない)。
+ * Consumerがコピー中の領域だけは上書きせず、その間はサンプルを破棄してoverrunとして数える。
+ * 破棄が発生した書き込み単位(フレーム)は公開せずに取り消すため、欠けたフレームが見えることはない。
+ * Consumerは、コピーする前に領域が上書きされていないことを確認する (SampleStoreと同じ方式)。
+ */
+public class SampleRing {
+
+    // index slots in mIndex (separated by 64byte to avoid false sharing)
+    private static final int PAD = 8;
+    private static final int HEAD = PAD;      // published write position (producer -> consumer)
+    private static final int FIRST = PAD * 2; // oldest position not yet overwritten (producer -> consumer)
+    private static final int PIN = PAD * 3;   // start of the region being copied (consumer -> producer)
+    private static final long NO_PIN = Long.MAX_VALUE;
+
+    private final short[] mData;
+    private final int mMask;
+    private final AtomicLongArray mIndex = new AtomicLongArray(PAD * 4);
+
+    // producer local state
+    private long mWrite;     // next write position (not yet published)
+    private long mLimit;     // FIRST + capacity (positions below can be written without checking)
+    private final int mStep; // positions released at once when overwriting
+    private long mOverruns;
+    private boolean mDropped; // some samples of the unpublished batch were discarded
+
+    /**
+     * Constructor.
+     * @param capacity バッファサイズ（サンプル数、2のべき乗に切り上げる）
+     */
+    public SampleRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mData = new short[size];
+        mMask = size - 1;
+        mWrite = 0;
+        mLimit = size;
+        mStep = Math.max(size / 8, 1);
+        mOverruns = 0;
+        mIndex.set(PIN, NO_PIN);
+    }
+
+    /**
+     * バッファサイズの取得
+     * @return 格納可能なサンプル数
+     */
+    public int capacity() {
+        return mData.length;
+    }
+
+    /*
+     * ---- Producer side ----
+     */
+
+    /**
+     * サンプルを1つ書き込む (publish()するまでConsumerからは見えない)
+     * @param value サンプル値
+     * @return 書き込めた場合true、Consumerがコピー中の領域と重なり破棄した場合false
+     */
+    public boolean put(int value) {
+        if (mWrite >= mLimit && !advance()) {
+            mOverruns++;
+            mDropped = true;
+            return false;
+        }
+        mData[(int) mWrite & mMask] = (short) value;
+        mWrite++;
+        return true;
+    }
+
+    /*
+     * 最も古いmStep個のサンプルを上書き可能にする
+     */
+    private boolean advance() {
+        long first = mLimit - mData.length + mStep;
+
+        // announce the overwrite first, then check the consumer (the consumer does it the other way round)
+        mIndex.set(FIRST, first);
+        if (mIndex.get(PIN) < first) {
+            mIndex.set(FIRST, mLimit - mData.length); // still being copied : retry on the next sample
+            return false;
+        }
+        mLimit = first + mData.length;
+        return true;
+    }
+
+    /**
+     * 書き込み済みのサンプルをConsumerに公開する
+     * 前回の公開以降に破棄されたサンプルがある場合は、公開せずに取り消す
+     * @return 公開した場合true
+     */
+    public boolean publish() {
+        if (mDropped) {
+            rollback();
+            return false;
+        }
+        mIndex.lazySet(HEAD, mWrite);
+        return true;
+    }
+
+    /**
+     * 未公開のサンプルを取り消す (Force Discardなど)
+     */
+    public void rollback() {
+        mWrite = mIndex.get(HEAD);
+        mDropped = false;
+    }
+
+    /**
+     * 空き不足で破棄したサンプル数の取得 (Producerスレッドから呼ぶ)
+     */
+    public long getOverruns() {
+        return mOverruns;
+    }
+
+    /*
+     * ---- Consumer side ----
+     */
+
+    /**
+     * 公開済みサンプルの総数を取得
+     * @return 先頭からの通し番号で表した書き込み位置
+     */
+    public long getHead() {
+        return mIndex.get(HEAD);
+    }
+
+    /**
+     * 公開済みの最新nサンプルをコピーする
+     * dst[off + (k + rotate) % n] に古い順k番目のサンプルが格納される
+     * @param dst コピー先
+     * @param off コピー先の先頭位置
+     * @param n サンプル数 (capacity()以下)
+     * @param rotate 格納位置の回転量 (0 <= rotate < n)
+     * @return コピーした最新サンプルの次の通し番号
+     */
+    public long readLatest(short[] dst, int off, int n, int rotate) {
+        while (true) {
+            final long head = mIndex.get(HEAD);
+            if (read(head, dst, off, n, rotate)) return head;
+        }
+    }
+
+    /**
+     * 指定位置までのnサンプルをコピーする
+     * @param end コピーする最新サンプルの次の通し番号 (公開済みの位置)
+     * @param dst コピー先
+     * @param off コピー先の先頭位置
+     * @param n サンプル数 (capacity()以下)
+     * @param rotate 格納位置の回転量 (0 <= rotate < n)
+     * @return コピーできた場合true、領域が既に上書きされていた場合false (dstは変更しない)
+     */
+    public boolean read(long end, short[] dst, int off, int n, int rotate) {
+        final long start = end - n;
+
+        // pin the region before checking it is not overwritten (the producer does it the other way round)
+        mIndex.set(PIN, Math.max(start, 0));
+        try {
+            if (Math.max(start, 0) < mIndex.get(FIRST)) return false;
+            int first = n - rotate;  // samples stored at dst[off+rotate ..]
+            copy(start, dst, off + rotate, first);
+            copy(start + first, dst, off, rotate);
+            return true;
+        } finally {
+            mIndex.lazySet(PIN, NO_PIN);
+        }
+    }
+
+    private void copy(long seq, short[] dst, int off, int len) {
+        int pos = (int) seq & mMask;
+        int len1 = Math.min(len, mData.length - pos);
+        System.arraycopy(mData, pos, dst, off, len1);
+        if (len1 < len) System.arraycopy(mData, 0, dst, off + len1, len - len1);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 長時間記録用のサンプル保存領域 (deep memory, Single Producer / Multi Consumer)
+ *
+ * 64Kサンプル毎のshort[]チャンクに受信順に格納し、メモリ使用量が上限に達したら最も古いチャンクを再利用する。
+ * サンプルは先頭からの通し番号で指定し、[getFirst(), getHead()) の範囲を任意の位置・長さで読み出せる。
+ * Producer(受信スレッド)は append() で書き込み、publish() でまとめて公開する。
+ * Consumer(描画スレッドなど)は read() でコピーする。コピー中の範囲はProducerが再利用しない
+ * (その間に再利用が必要になったサンプルは破棄し、overrunとして数える)。
+ * インデックス(MinMaxPyramid)付きで生成した場合、readEnvelope() で任意の範囲を表示の列数分のmin/maxとして
+ * 範囲の大きさに関わらず O(列数 x log) で取得できる。
+ */
+public class SampleStore {
+
+    public static final int CHUNK_SHIFT = 16;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // samples per chunk
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // index slots in mIndex (separated by 64byte to avoid false sharing)
+    private static final int PAD = 8;
+    private static final int HEAD = PAD;      // published write position (producer -> consumer)
+    private static final int FIRST = PAD * 2; // oldest retained position (producer -> consumer)
+    private static final int PIN = PAD * 3;   // start of the region being copied (consumer -> producer)
+    private static final long NO_PIN = Long.MAX_VALUE;
+
+    private final short[][] mChunk;
+    private final MinMaxPyramid mPyramid; // null : not indexed
+    private final AtomicLongArray mIndex = new AtomicLongArray(PAD * 4);
+
+    // producer local state
+    private long mWrite;    // next write position (not yet published)
+    private long mFirst;    // oldest retained position
+    private long mOverruns;
+
+    /**
+     * Constructor. (インデックス無し)
+     * @param budgetBytes メモリ使用量の上限 (CHUNK_SIZEの2チャンク分以上に切り上げる)
+     */
+    public SampleStore(long budgetBytes) {
+        this(budgetBytes, false);
+    }
+
+    /**
+     * Constructor.
+     * @param budgetBytes メモリ使用量の上限 (インデックスを含む、CHUNK_SIZEの2チャンク分以上に切り上げる)
+     * @param indexed min/maxインデックスを作成する場合true (サンプルの1/8程度のメモリを追加で使用する)
+     */
+    public SampleStore(long budgetBytes, boolean indexed) {
+        long chunkBytes = CHUNK_SIZE * 2 + (indexed ? CHUNK_SIZE / MinMaxPyramid.BASE_SIZE * 8 : 0);
+        int chunks = (int) Math.max(2, Math.min(Integer.MAX_VALUE, budgetBytes / chunkBytes));
+        mChunk = new short[chunks][];
+        mPyramid = indexed ? new MinMaxPyramid(capacity()) : null;
+        mIndex.set(PIN, NO_PIN);
+    }
+
+    /**
+     * 保持できるサンプル数
+     */
+    public long capacity() {
+        return (long) mChunk.length * CHUNK_SIZE;
+    }
+
+    /**
+     * メモリ使用量の上限 (確保済みでないチャンクとインデックスを含む)
+     * @return bytes
+     */
+    public long getBudget() {
+        return capacity() * 2 + ((mPyramid != null) ? mPyramid.getMemoryUsage() : 0);
+    }
+
+    /**
+     * min/maxインデックスの有無
+     */
+    public boolean isIndexed() {
+        return mPyramid != null;
+    }
+
+    /*
+     * ---- Producer side ----
+     */
+
+    /**
+     * サンプルを1つ追加する (publish()するまでConsumerからは見えない)
+     * @param value サンプル値
+     * @return 格納できた場合true、コピー中の領域と重なり破棄した場合false
+     */
+    public boolean append(int value) {
+        final long pos = mWrite;
+        final int offset = (int) pos & CHUNK_MASK;
+        final int slot = (int) ((pos >>> CHUNK_SHIFT) % mChunk.length);
+        if (offset == 0 && !startChunk(pos, slot)) {
+            mOverruns++;
+            return false;
+        }
+        mChunk[slot][offset] = (short) value;
+        mWrite = pos + 1;
+        if (mPyramid != null) mPyramid.add(value);
+        return true;
+    }
+
+    /*
+     * 新しいチャンクの書き込みを開始する (満杯の場合は最も古いチャンクを再利用する)
+     */
+    private boolean startChunk(long pos, int slot) {
+        if (mChunk[slot] == null) {
+            mChunk[slot] = new short[CHUNK_SIZE]; // grows up to the budget, then recycles
+            return true;
+        }
+        long first = pos - capacity() + CHUNK_SIZE;
+        if (first <= mFirst) return true;
+
+        // announce the eviction first, then check the consumer (the consumer does it the other way round)
+        mIndex.set(FIRST, first);
+        if (mIndex.get(PIN) < first) {
+            mIndex.set(FIRST, mFirst); // still being copied : retry on the next sample
+            return false;
+        }
+        mFirst = first;
+        return true;
+    }
+
+    /**
+     * 追加したサンプルをConsumerに公開する
+     */
+    public void publish() {
+        mIndex.lazySet(HEAD, mWrite);
+    }
+
+    /**
+     * 読み出し中の領域と重なり破棄したサンプル数 (Producerスレッドから呼ぶ)
+     */
+    public long getOverruns() {
+        return mOverruns;
+    }
+
+    /*
+     * ---- Consumer side ----
+     */
+
+    /**
+     * 公開済みサンプルの総数を取得
+     * @return 先頭からの通し番号で表した書き込み位置
+     */
+    public long getHead() {
+        return mIndex.get(HEAD);
+    }
+
+    /**
+     * 保持している最も古いサンプルの通し番号を取得
+     */
+    public long getFirst() {
+        return mIndex.get(FIRST);
+    }
+
+    /**
+     * 指定位置からサンプルをコピーする (同時に呼べるConsumerは1スレッドのみ)
+     * @param start 先頭サンプルの通し番号 (getFirst()以上)
+     * @param dst コピー先
+     * @param off コピー先の先頭位置
+     * @param len 最大サンプル数
+     * @return コピーしたサンプル数 (公開済みの範囲まで)、startが保持範囲外の場合-1
+     */
+    public int read(long start, short[] dst, int off, int len) {
+        // pin the region before checking it is still retained (the producer does it the other way round)
+        mIndex.set(PIN, start);
+        try {
+            if (start < mIndex.get(FIRST)) return -1;
+            int n = (int) Math.max(0, Math.min(len, mIndex.get(HEAD) - start));
+            int done = 0;
+            while (done < n) {
+                long pos = start + done;
+                int offset = (int) pos & CHUNK_MASK;
+                int count = Math.min(n - done, CHUNK_SIZE - offset);
+                short[] chunk = mChunk[(int) ((pos >>> CHUNK_SHIFT) % mChunk.length)];
+                System.arraycopy(chunk, offset, dst, off + done, count);
+                done += count;
+            }
+            return n;
+        } finally {
+            mIndex.lazySet(PIN, NO_PIN);
+        }
+    }
+
+    /**
+     * 範囲を列毎の最小値・最大値に縮約する (同時に呼べるConsumerは1スレッドのみ)
+     * 列 c には [start + len * c / columns, start + len * (c+1) / columns) のサンプルが割り当てられる。
+     * インデックス付きの場合は範囲の大きさに関わらず O(columns x log)、無い場合は全サンプルを走査する。
+     * @param start 先頭サンプルの通し番号 (getFirst()以上)
+     * @param len サンプル数 (columns以上、start + lenはgetHead()以下)
+     * @param columns 列数
+     * @param min 各列の最小値
+     * @param max 各列の最大値
+     * @return 縮約できた場合true、範囲が保持・公開されていない場合false
+     */
+    public boolean readEnvelope(long start, long len, int columns, short[] min, short[] max) {
+        mIndex.set(PIN, start);
+        try {
+            if (start < mIndex.get(FIRST) || start + len > mIndex.get(HEAD)) return false;
+            long lo = start;
+            for (int c = 0; c < columns; c++) {
+                long hi = start + len * (c + 1) / columns;
+                int mm = (mPyramid != null) ? mPyramid.minMax(this, lo, hi) : scan(lo, hi);
+                min[c] = (short) (mm >> 16);
+                max[c] = (short) mm;
+                lo = hi;
+            }
+            return true;
+        } finally {
+            mIndex.lazySet(PIN, NO_PIN);
+        }
+    }
+
+    private int scan(long lo, long hi) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (long p = lo; p < hi; p++) {
+            int v = get(p);
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+        return (min << 16) | max;
+    }
+
+    /*
+     * 1サンプルの参照 (readEnvelope()の中で、保持されている位置のみ)
+     */
+    int get(long pos) {
+        return mChunk[(int) ((pos >>> CHUNK_SHIFT) % mChunk.length)][(int) pos & CHUNK_MASK];
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * BluetoothCommが使用する通信路
+ * RFCOMM(SPP)の他に、負荷試験用のTCP/ストリーム接続などを差し替えて使用できる。
+ * connect()～close()を繰り返して再接続できること。
+ */
+public interface Transport {
+
+    /**
+     * 接続する (ConnectThreadから呼ばれ、完了するまでブロックする)
+     * @throws IOException 接続に失敗した場合
+     */
+    void connect() throws IOException;
+
+    /**
+     * 受信用ストリームの取得 (connect()成功後に有効)
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * 送信用ストリームの取得 (connect()成功後に有効)
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * 切断する
+     * 他のスレッドでブロック中の read() は IOException で終了する
+     */
+    void close();
+
+    /**
+     * 接続先の名前 (画面表示用)
+     */
+    String getName();
+
+    /**
+     * 切断後に connect() で同じ接続をやり直せるか
+     * falseの場合、入力ストリームの終端(-1)はセッションの終了として扱い、自動再接続しない
+     */
+    boolean isReconnectable();
+}
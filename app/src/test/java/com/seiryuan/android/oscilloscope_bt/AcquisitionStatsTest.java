@@ -0,0 +1,67 @@
+package com.seiryuan.android.oscilloscope_bt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * AcquisitionStats counters of the BluetoothComm receiving path (runs on the development machine).
+ */
+public class AcquisitionStatsTest {
+
+    private static final int FRAME_LEN = 480;
+
+    private static class NullListener implements BluetoothComm.StatusListener {
+        @Override
+        public void onStateChange(int state) {
+        }
+
+        @Override
+        public void onDeviceName(String name) {
+        }
+
+        @Override
+        public void onToast(String message) {
+        }
+    }
+
+    @Test
+    public void lossAndMalformedData_areCounted() throws Exception {
+        byte[] data = new byte[8192];
+        short[] frame = new short[FRAME_LEN + 20];
+        int pos = SampleEncoder.encodeBurst(frame, FRAME_LEN, data, 0);       // good frame
+        pos = SampleEncoder.encodeBurst(frame, FRAME_LEN + 20, data, pos);    // overflow (no EOR at the buffer end)
+        pos = SampleEncoder.encodeSample(0, SampleEncoder.TAG_BURST, data, pos);
+        data[pos++] = (byte) SampleEncoder.DISCARD;                           // discard
+        data[pos++] = 0x01;                                                   // orphaned High byte
+        data[pos++] = (byte) 0xf0;                                            // undefined
+        pos = SampleEncoder.encodeSample(0, SampleEncoder.TAG_CONT_EOS, data, pos);
+        pos = SampleEncoder.encodeSample(0, SampleEncoder.TAG_CONT_EOR, data, pos);
+
+        BluetoothComm comm = new BluetoothComm(new NullListener());
+        comm.initBuffer(FRAME_LEN);
+        comm.connect(new LoopbackTransport(new ByteArrayInputStream(data, 0, pos), new ByteArrayOutputStream()));
+        long deadline = System.nanoTime() + 5000000000L;
+        AcquisitionStats stats = comm.getStats();
+        while (stats.get(AcquisitionStats.BYTES) < pos || comm.getState() != BluetoothComm.STATE_NONE) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+
+        assertEquals(2, stats.get(AcquisitionStats.BURST_FRAMES));
+        assertEquals(1, stats.get(AcquisitionStats.CONTINUOUS_FRAMES));
+        assertEquals(1, stats.get(AcquisitionStats.CONTINUOUS_PACKETS));
+        assertEquals(1, stats.get(AcquisitionStats.OVERFLOWS));
+        assertEquals(1, stats.get(AcquisitionStats.DISCARDS));
+        assertEquals(1, stats.get(AcquisitionStats.ORPHANS));
+        assertEquals(1, stats.get(AcquisitionStats.UNKNOWN));
+        assertEquals(0, stats.get(AcquisitionStats.OVERRUNS));
+        long reads = 0;
+        for (int k = 0; k < AcquisitionStats.READ_SIZE_BUCKETS; k++) reads += stats.getReadSizeCount(k);
+        assertEquals(stats.get(AcquisitionStats.READS), reads);
+        assertTrue(stats.get(AcquisitionStats.DECODE_MAX_NS) > 0);
+    }
+}
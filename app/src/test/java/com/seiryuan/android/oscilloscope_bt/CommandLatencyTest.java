@@ -0,0 +1,103 @@
+package com.seiryuan.android.oscilloscope_bt;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * CommandLatency local unit test (runs on the development machine).
+ */
+public class CommandLatencyTest {
+
+    private static final long MS = 1000000L;
+
+    private static class NullListener implements BluetoothComm.StatusListener {
+        @Override
+        public void onStateChange(int state) {
+        }
+
+        @Override
+        public void onDeviceName(String name) {
+        }
+
+        @Override
+        public void onToast(String message) {
+        }
+    }
+
+    @Test
+    public void firstMatchingFrame_completesTheMeasurement() throws Exception {
+        CommandLatency latency = new CommandLatency();
+        latency.onCommandWritten("C1\n".getBytes(), 100 * MS, 101 * MS);
+        latency.onCommandWritten("TP\n".getBytes(), 100 * MS, 101 * MS);
+        latency.onCommandWritten("R0\n".getBytes(), 100 * MS, 101 * MS);
+
+        latency.onFrame(BluetoothComm.MODE_BURST, 90 * MS, 105 * MS);       // started before the command
+        latency.onFrame(BluetoothComm.MODE_BURST, 106 * MS, 110 * MS);      // T, but not C
+        latency.onFrame(BluetoothComm.MODE_CONTINUOUS, 120 * MS, 130 * MS); // C
+        latency.onFrame(BluetoothComm.MODE_CONTINUOUS, 140 * MS, 150 * MS); // nothing pending
+
+        assertEquals(1, latency.getCount('T'));
+        assertEquals(1, latency.getCount('C'));
+        assertEquals(0, latency.getCount('R'));
+        assertEquals(10000, latency.getMax('T'));
+        assertEquals(30000, latency.getMax('C'));
+        assertEquals(30000, latency.getPercentile('C', 99));
+
+        String[] csv = latency.toCsv().split("\n");
+        assertEquals(CommandLatency.NUM_TYPES + 1, csv.length);
+        assertTrue(csv[4].startsWith("C,1,30000,30000,"));
+        assertEquals(4 + CommandLatency.NUM_BUCKETS, csv[4].split(",").length);
+    }
+
+    @Test
+    public void timebaseChange_isMeasuredOverTheLink() throws Exception {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        final ProbeSimulator probe = new ProbeSimulator();
+        probe.setSpeed(5);
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    Socket s = server.accept();
+                    probe.start(s);
+                } catch (Exception e) {
+                    // test fails on count
+                }
+            }
+        };
+        acceptor.start();
+
+        BluetoothComm comm = new BluetoothComm(new NullListener());
+        comm.initBuffer(MainActivity.BUFFER_LEN);
+        comm.connect(new LoopbackTransport("127.0.0.1", server.getLocalPort()));
+        CommandLatency latency = comm.getCommandLatency();
+        try {
+            long deadline = System.nanoTime() + 5000 * MS;
+            while (comm.getState() != BluetoothComm.STATE_CONNECTED && System.nanoTime() < deadline) Thread.sleep(5);
+
+            String[] commands = {"B0\n", "C2\n", "B2\n", "A3\n"};
+            for (String c : commands) {
+                char type = c.charAt(0);
+                long count = latency.getCount(type);
+                comm.write(c.getBytes());
+                while (latency.getCount(type) == count) {
+                    assertTrue(System.nanoTime() < deadline);
+                    Thread.sleep(5);
+                }
+            }
+            assertEquals(2, latency.getCount('B'));
+            assertTrue(latency.getMax('B') > 0);
+            assertTrue(latency.getMax('C') > 0);
+            assertEquals(1, latency.getCount('A'));
+            System.out.println(latency.describe()[0] + " / " + latency.describe()[1]);
+        } finally {
+            comm.disconnect();
+            probe.stop();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.seiryuan.android.oscilloscope_bt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * CommandWriter local unit test (runs on the development machine).
+ */
+public class CommandWriterTest {
+
+    // output stream blocking like a congested RFCOMM link until released
+    private static class GatedStream extends OutputStream {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<String> writes = new ArrayList<String>();
+
+        @Override
+        public void write(int b) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            entered.countDown();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                writes.add(new String(b, off, len));
+            }
+        }
+    }
+
+    @Test
+    public void supersededCommands_areCoalescedAndBatched() throws Exception {
+        GatedStream out = new GatedStream();
+        CommandWriter writer = new CommandWriter(out);
+        writer.start();
+
+        assertTrue(writer.offer("R1\n".getBytes()));
+        assertTrue(out.entered.await(5, TimeUnit.SECONDS)); // writer is stuck in write()
+
+        long t0 = System.nanoTime();
+        String[] commands = {"B0\n", "TP\n", "C1\n", "A3\n", "B2\n", "R0\n"};
+        for (String c : commands) assertTrue(writer.offer(c.getBytes()));
+        long offerTime = System.nanoTime() - t0;
+        assertTrue(offerTime < 50000000L); // callers never wait for the link
+        assertEquals(4, writer.getPendingCount());
+        assertEquals(2, writer.getCoalescedCount());
+
+        Thread.sleep(20);
+        out.gate.countDown();
+        writer.close();
+        writer.join(5000);
+
+        assertEquals(2, out.writes.size());
+        assertEquals("R1\n", out.writes.get(0));
+        assertEquals("B2\nTP\nA3\nR0\n", out.writes.get(1)); // replaced in place
+        assertEquals(5, writer.getWrittenCount());
+        assertEquals(2, writer.getBatchCount());
+        assertTrue(writer.getLastLatency('B') >= 20000000L);
+        assertTrue(writer.getMaxLatency() >= writer.getLastLatency('B'));
+    }
+
+    @Test
+    public void singleShot_keepsOrderAndIsNotMerged() throws Exception {
+        GatedStream out = new GatedStream();
+        CommandWriter writer = new CommandWriter(out);
+        writer.start();
+        assertTrue(writer.offer("R0\n".getBytes()));
+        assertTrue(out.entered.await(5, TimeUnit.SECONDS));
+
+        String[] commands = {"T1\n", "R2\n", "T2\n", "R2\n", "R1\n"};
+        for (String c : commands) assertTrue(writer.offer(c.getBytes()));
+        assertEquals(1, writer.getCoalescedCount()); // T2 only
+
+        out.gate.countDown();
+        writer.close();
+        writer.join(5000);
+        assertEquals("T2\nR2\nR2\nR1\n", out.writes.get(1)); // trigger is changed before the single shot
+    }
+
+    @Test
+    public void fullQueue_rejectsWithoutBlocking() throws Exception {
+        GatedStream out = new GatedStream();
+        CommandWriter writer = new CommandWriter(out, 2);
+        writer.start();
+        assertTrue(writer.offer("X\n".getBytes()));
+        assertTrue(out.entered.await(5, TimeUnit.SECONDS));
+
+        assertTrue(writer.offer("X1\n".getBytes()));
+        assertTrue(writer.offer("X2\n".getBytes()));
+        assertFalse(writer.offer("X3\n".getBytes())); // not a superseding command
+        assertFalse(writer.offer("G0\n".getBytes()));
+        assertEquals(2, writer.getRejectedCount());
+
+        out.gate.countDown();
+        writer.close();
+        writer.join(5000);
+        assertEquals("X1\nX2\n", out.writes.get(1));
+        assertFalse(writer.offer("G1\n".getBytes())); // closed
+    }
+
+    @Test
+    public void listener_receivesWireTime() throws Exception {
+        final List<String> written = new ArrayList<String>();
+        final long[] latency = new long[1];
+        CommandWriter writer = new CommandWriter(new ByteArrayOutputStream());
+        writer.setListener(new CommandWriter.Listener() {
+            @Override
+            public void onCommandWritten(byte[] command, long enqueueTime, long wireTime) {
+                written.add(new String(command));
+                latency[0] = wireTime - enqueueTime;
+            }
+        });
+        writer.start();
+        writer.offer("F1\n".getBytes());
+        writer.close();
+        writer.join(5000);
+
+        assertEquals(1, written.size());
+        assertEquals("F1\n", written.get(0));
+        assertTrue(latency[0] >= 0);
+        assertEquals(latency[0], writer.getLastLatency('F'));
+    }
+}
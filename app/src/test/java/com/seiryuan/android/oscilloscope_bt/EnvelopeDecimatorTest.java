@@ -0,0 +1,88 @@
+package com.seiryuan.android.oscilloscope_bt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * EnvelopeDecimator local unit test (runs on the development machine).
+ */
+public class EnvelopeDecimatorTest {
+
+    private static final int COLUMNS = 960;
+    private static final long FRAME_BUDGET_NS = 16666667; // 60fps
+
+    @Test
+    public void singleSampleGlitch_isPreserved() throws Exception {
+        short[] src = new short[10000];
+        for (int i = 0; i < src.length; i++) src[i] = 512;
+        src[4321] = 1023;
+        src[9999] = 3;
+        short[] min = new short[100];
+        short[] max = new short[100];
+        EnvelopeDecimator.decimate(src, 0, src.length, 100, min, max);
+
+        for (int c = 0; c < 100; c++) {
+            assertEquals((c == 43) ? 1023 : 512, max[c]);
+            assertEquals((c == 99) ? 3 : 512, min[c]);
+        }
+    }
+
+    @Test
+    public void storeWindow_matchesArrayDecimation() throws Exception {
+        int len = 300001;
+        short[] src = new short[len + 5];
+        SampleStore store = new SampleStore(4L << 20);
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (short) ((i * 7919) % 1024);
+            store.append(src[i]);
+        }
+        store.publish();
+
+        short[] min1 = new short[COLUMNS];
+        short[] max1 = new short[COLUMNS];
+        short[] min2 = new short[COLUMNS];
+        short[] max2 = new short[COLUMNS];
+        EnvelopeDecimator.decimate(src, 5, len, COLUMNS, min1, max1);
+        assertTrue(new EnvelopeDecimator().decimate(store, 5, len, COLUMNS, min2, max2));
+        assertArrayEquals(min1, min2);
+        assertArrayEquals(max1, max2);
+        assertFalse(new EnvelopeDecimator().decimate(store, 5, len + 1, COLUMNS, min2, max2)); // beyond the head
+    }
+
+    @Test
+    public void oneMillionSamples_fitInFrameBudget() throws Exception {
+        final int len = 1 << 20;
+        short[] src = new short[len];
+        SampleStore store = new SampleStore(4L << 20);
+        for (int i = 0; i < len; i++) {
+            src[i] = (short) (512 + 400 * Math.sin(i / 50.0) + ((i % 997 == 0) ? 100 : 0));
+            store.append(src[i]);
+        }
+        store.publish();
+        short[] min = new short[COLUMNS];
+        short[] max = new short[COLUMNS];
+        EnvelopeDecimator decimator = new EnvelopeDecimator();
+
+        for (int n = 0; n < 20; n++) { // warm up
+            EnvelopeDecimator.decimate(src, 0, len, COLUMNS, min, max);
+            decimator.decimate(store, 0, len, COLUMNS, min, max);
+        }
+        long arrayNs = Long.MAX_VALUE;
+        long storeNs = Long.MAX_VALUE;
+        for (int n = 0; n < 10; n++) {
+            long t0 = System.nanoTime();
+            EnvelopeDecimator.decimate(src, 0, len, COLUMNS, min, max);
+            long t1 = System.nanoTime();
+            decimator.decimate(store, 0, len, COLUMNS, min, max);
+            long t2 = System.nanoTime();
+            arrayNs = Math.min(arrayNs, t1 - t0);
+            storeNs = Math.min(storeNs, t2 - t1);
+        }
+        System.out.printf("EnvelopeDecimator: 1M samples -> %d columns in %.2f msec (array), %.2f msec (SampleStore), frame budget %.1f msec%n",
+                COLUMNS, arrayNs / 1e6, storeNs / 1e6, FRAME_BUDGET_NS / 1e6);
+
+        assertTrue(arrayNs < FRAME_BUDGET_NS);
+        assertTrue(storeNs < FRAME_BUDGET_NS);
+    }
+}
@@ -0,0 +1,36 @@
+package com.seiryuan.android.oscilloscope_bt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameTiming local unit test (runs on the development machine).
+ */
+public class FrameTimingTest {
+
+    @Test
+    public void intervals_areSummarizedOverRecentWindow() throws Exception {
+        FrameTiming timing = new FrameTiming();
+        assertEquals(0, timing.getFrameRate(), 0);
+        assertEquals(0, timing.getIntervalPercentile(50));
+
+        // old frames at 1msec, then a full window at 10msec with 2 late frames
+        long t = 1000000000L;
+        for (int i = 0; i < 100; i++) timing.recordArrival(t += 1000000, 100);
+        for (int i = 0; i < FrameTiming.WINDOW; i++) {
+            t += (i == 50 || i == 150) ? 30000000 : 10000000;
+            timing.recordArrival(t, 1000);
+        }
+
+        assertEquals(100 + FrameTiming.WINDOW, timing.getFrameCount());
+        assertEquals(100 * 100 + FrameTiming.WINDOW * 1000, timing.getByteCount());
+        assertEquals(10000000, timing.getIntervalPercentile(50));
+        assertEquals(30000000, timing.getIntervalPercentile(99.5));
+        assertEquals(1e9 / (10000000 + 40000000.0 / FrameTiming.WINDOW), timing.getFrameRate(), 0.01);
+
+        for (int i = 0; i < 10; i++) timing.recordDraw(t, t + i * 1000000);
+        assertEquals(4000000, timing.getStalenessPercentile(50));
+        assertEquals(9000000, timing.getStalenessPercentile(100));
+    }
+}
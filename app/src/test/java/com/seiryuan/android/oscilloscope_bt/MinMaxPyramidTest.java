@@ -0,0 +1,89 @@
+package com.seiryuan.android.oscilloscope_bt;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * MinMaxPyramid (SampleStore.readEnvelope) local unit test (runs on the development machine).
+ */
+public class MinMaxPyramidTest {
+
+    private static final int COLUMNS = 960;
+
+    @Test
+    public void anyWindow_matchesFullScan() throws Exception {
+        // 3 chunks retained, 7.5 chunks written : the index wraps like the samples
+        SampleStore store = new SampleStore(3L * SampleStore.CHUNK_SIZE * 2 * 9 / 8 + 1024, true);
+        assertEquals(3L * SampleStore.CHUNK_SIZE, store.capacity());
+        long total = SampleStore.CHUNK_SIZE * 15L / 2;
+        short[] all = new short[(int) total];
+        Random random = new Random(7);
+        for (int i = 0; i < total; i++) {
+            all[i] = (short) ((int) (512 + 300 * Math.sin(i / 700.0) + random.nextInt(40)) & 0x3ff);
+            if (random.nextInt(50000) == 0) all[i] = (short) random.nextInt(1024); // glitch
+            store.append(all[i]);
+            if ((i & 1023) == 0) store.publish();
+        }
+        store.publish();
+
+        short[] min1 = new short[COLUMNS];
+        short[] max1 = new short[COLUMNS];
+        short[] min2 = new short[COLUMNS];
+        short[] max2 = new short[COLUMNS];
+        long first = store.getFirst();
+        for (int n = 0; n < 200; n++) {
+            long len = COLUMNS + random.nextInt((int) (total - first - COLUMNS));
+            long start = first + (long) (random.nextDouble() * (total - first - len));
+            EnvelopeDecimator.decimate(all, (int) start, (int) len, COLUMNS, min1, max1);
+            assertTrue(store.readEnvelope(start, len, COLUMNS, min2, max2));
+            assertArrayEquals("window " + start + "+" + len, min1, min2);
+            assertArrayEquals("window " + start + "+" + len, max1, max2);
+        }
+        assertFalse(store.readEnvelope(first - 1, COLUMNS, COLUMNS, min2, max2));
+        assertFalse(store.readEnvelope(total - COLUMNS + 1, COLUMNS, COLUMNS, min2, max2));
+    }
+
+    @Test
+    public void zoomedView_costDoesNotGrowWithSpan() throws Exception {
+        SampleStore indexed = new SampleStore(20L << 20, true);
+        SampleStore plain = new SampleStore(20L << 20);
+        long total = indexed.capacity();
+        for (long i = 0; i < total; i++) {
+            int v = (int) (512 + 400 * Math.sin(i / 1000.0));
+            indexed.append(v);
+            plain.append(v);
+        }
+        indexed.publish();
+        plain.publish();
+        short[] min = new short[COLUMNS];
+        short[] max = new short[COLUMNS];
+
+        long[] spans = {COLUMNS * 4L, 1L << 16, 1L << 20, total};
+        long[] indexedNs = new long[spans.length];
+        for (int s = 0; s < spans.length; s++) {
+            indexedNs[s] = best(indexed, spans[s], min, max);
+        }
+        long plainNs = best(plain, total, min, max);
+        System.out.printf("MinMaxPyramid: %d columns from %d/%d/%d/%d samples in %.0f/%.0f/%.0f/%.0f usec (full scan of %d: %.0f usec), index %d KB%n",
+                COLUMNS, spans[0], spans[1], spans[2], spans[3],
+                indexedNs[0] / 1e3, indexedNs[1] / 1e3, indexedNs[2] / 1e3, indexedNs[3] / 1e3,
+                total, plainNs / 1e3, (indexed.getBudget() - total * 2) >> 10);
+
+        assertTrue(indexedNs[3] < indexedNs[0] * 10); // O(pixels x log), not O(samples)
+        assertTrue(indexedNs[3] * 20 < plainNs);
+    }
+
+    private static long best(SampleStore store, long span, short[] min, short[] max) {
+        long start = store.getHead() - span;
+        long best = Long.MAX_VALUE;
+        for (int n = 0; n < 30; n++) {
+            long t0 = System.nanoTime();
+            assertTrue(store.readEnvelope(start, span, COLUMNS, min, max));
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Random;
+
+/**
+ * プローブ(ファームウェア)のシミュレータ
+ *
+ * MainActivity.sendMessage() が送信するコマンド (R0-R2, TF/TP/TN, B0-B2, C0-C2, A2/A3/A9/AA, G0/G1, F0-F2) を受け付け、
+ * ConnectedThreadが受信するのと同じ形式(従来形式, Packed形式, Delta形式)でBurst/Continuousフレームを送信する。
+ * 波形・ノイズ・サンプリング周波数・フレーム長を設定でき、実時間の任意倍速(0は待ち無し)で動作する。
+ * Android APIに依存しないため、JVM上の負荷試験・不具合の再現に使用できる。
+ */
+public class ProbeSimulator implements Runnable {
+
+    // Waveforms
+    public static final int WAVE_SINE = 0;
+    public static final int WAVE_SQUARE = 1;
+    public static final int WAVE_TRIANGLE = 2;
+    public static final int WAVE_SAWTOOTH = 3;
+    public static final int WAVE_DC = 4;
+
+    // Run state (R command)
+    public static final int RUN_STOP = 0;
+    public static final int RUN_FREE = 1;
+    public static final int RUN_SINGLE = 2;
+
+    // Trigger (T command)
+    public static final int TRIG_FREE = 0;
+    public static final int TRIG_POSITIVE = 1;
+    public static final int TRIG_NEGATIVE = 2;
+
+    // Framing (F command)
+    public static final int FRAMING_LEGACY = 0;
+    public static final int FRAMING_PACKED = 1;
+    public static final int FRAMING_DELTA = 2;
+
+    // Sampling rate of each timebase (48 samples per division)
+    private static final double[] BURST_RATE = {9600, 48000, 96000}; // B0:5msec, B1:1msec, B2:500usec
+    private static final double[] CONT_RATE = {9.6, 48, 96};         // C0:5sec,  C1:1sec,  C2:0.5sec
+    private static final double PACKET_TIME = 0.02; // continuous samples are sent in 20msec packets
+
+    /**
+     * 1チャンネル分の入力信号の設定
+     */
+    public static class Signal {
+        public int waveform = WAVE_SINE;
+        public double frequency = 100; // Hz
+        public int amplitude = 400;    // peak (ADC code)
+        public int offset = 512;       // center (ADC code)
+        public int noise = 0;          // peak (ADC code)
+    }
+
+    private final Signal[] mSignal = new Signal[16]; // indexed by ADC channel
+    private final Random mRandom = new Random(1);
+
+    // settings
+    private volatile int mFrameLength = MainActivity.BUFFER_LEN;
+    private volatile double mSampleRate = 0;  // 0 = follow timebase
+    private volatile double mLinkRate = 0;    // bit/sec, 0 = unlimited
+    private volatile double mSpeed = 1.0;     // 1.0 = real time, 0 = as fast as possible
+
+    // probe state (changed by commands)
+    private volatile int mRun = RUN_FREE;
+    private volatile int mTrigger = TRIG_FREE;
+    private volatile int mMode = BluetoothComm.MODE_BURST;
+    private volatile int mTimebase = 1;
+    private volatile int mChannel = 2;
+    private volatile int mGpio = 1;
+    private volatile int mFraming = FRAMING_LEGACY;
+
+    // stream state
+    private InputStream mCommandIn;
+    private OutputStream mDataOut;
+    private Thread mThread;
+    private volatile boolean mRunning;
+    private final StringBuilder mLine = new StringBuilder();
+    private double mPhase;
+    private int mSweepIndex;
+    private double mSimTime;  // simulated time since mWallBase (sec)
+    private long mWallBase;
+    private byte[] mOut;
+    private short[] mFrame;
+
+    // statistics
+    private volatile long mFramesSent;
+    private volatile long mSamplesSent;
+    private volatile long mBytesSent;
+    private volatile long mCommands;
+
+    /**
+     * Constructor.
+     */
+    public ProbeSimulator() {
+        for (int i = 0; i < mSignal.length; i++) {
+            mSignal[i] = new Signal();
+        }
+        mSignal[3].waveform = WAVE_SQUARE;
+        mSignal[9].waveform = WAVE_TRIANGLE;
+        mSignal[10].waveform = WAVE_SAWTOOTH;
+    }
+
+    /**
+     * ADCチャンネルの入力信号設定を取得 (値を変更して使用する)
+     * @param ch ADCチャンネル番号 (Aコマンドの値)
+     */
+    public Signal getSignal(int ch) {
+        return mSignal[ch];
+    }
+
+    /**
+     * Burstフレーム・Continuousスイープのサンプル数を設定
+     */
+    public void setFrameLength(int n) {
+        mFrameLength = n;
+    }
+
+    /**
+     * サンプリング周波数を設定
+     * @param rate samples/sec (0の場合はB/Cコマンドのタイムベースに従う)
+     */
+    public void setSampleRate(double rate) {
+        mSampleRate = rate;
+    }
+
+    /**
+     * 通信路の速度を設定 (送信時間をシミュレートする)
+     * @param bitsPerSec bit/sec (0の場合は無制限)
+     */
+    public void setLinkRate(double bitsPerSec) {
+        mLinkRate = bitsPerSec;
+    }
+
+    /**
+     * 実時間に対する動作速度を設定
+     * @param speed 1.0で実時間, 10で10倍速, 0で待ち無し
+     */
+    public void setSpeed(double speed) {
+        mSpeed = speed;
+    }
+
+    public int getRunState() {
+        return mRun;
+    }
+
+    public int getTrigger() {
+        return mTrigger;
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public int getChannel() {
+        return mChannel;
+    }
+
+    public int getGpio() {
+        return mGpio;
+    }
+
+    public int getFraming() {
+        return mFraming;
+    }
+
+    public long getFramesSent() {
+        return mFramesSent;
+    }
+
+    public long getSamplesSent() {
+        return mSamplesSent;
+    }
+
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    public long getCommandCount() {
+        return mCommands;
+    }
+
+    /**
+     * 接続済みソケット上でシミュレーションを開始する
+     * @param socket 接続済みのソケット (BluetoothComm側はLoopbackTransportで接続する)
+     */
+    public void start(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        start(socket.getInputStream(), socket.getOutputStream());
+    }
+
+    /**
+     * シミュレーションを開始する
+     * @param commandIn コマンド受信用ストリーム
+     * @param dataOut データ送信用ストリーム
+     */
+    public synchronized void start(InputStream commandIn, OutputStream dataOut) {
+        mCommandIn = commandIn;
+        mDataOut = dataOut;
+        mRunning = true;
+        mThread = new Thread(this, "ProbeSimulator");
+        mThread.start();
+    }
+
+    /**
+     * シミュレーションを停止する
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            mRunning = false;
+            t = mThread;
+            mThread = null;
+        }
+        if (t == null) return;
+        t.interrupt();
+        try {
+            t.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        rebase();
+        try {
+            while (mRunning) {
+                pollCommands();
+                if (mRun == RUN_STOP) {
+                    Thread.sleep(5);
+                    rebase();
+                    continue;
+                }
+                if (mMode == BluetoothComm.MODE_BURST) {
+                    sendBurst();
+                }
+                else {
+                    sendContinuous();
+                }
+            }
+        } catch (IOException e) {
+            // connection closed by receiver
+        } catch (InterruptedException e) {
+            // stopped
+        }
+        mRunning = false;
+    }
+
+    /*
+     * コマンドの受信と処理 (受信済みの分のみ、ブロックしない)
+     */
+    private void pollCommands() throws IOException {
+        while (mCommandIn.available() > 0) {
+            int c = mCommandIn.read();
+            if (c < 0) throw new IOException("end of stream");
+            if (c == '\n' || c == '\r') {
+                if (mLine.length() > 0) handleCommand(mLine.toString());
+                mLine.setLength(0);
+            }
+            else {
+                mLine.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * 1コマンドの処理
+     * @param cmd コマンド文字列 (改行を除く)
+     */
+    void handleCommand(String cmd) {
+        mCommands++;
+        if (cmd.length() < 2) return;
+        char arg = cmd.charAt(1);
+        switch (cmd.charAt(0)) {
+            case 'R':
+                if (arg >= '0' && arg <= '2') mRun = arg - '0';
+                break;
+            case 'T':
+                if (arg == 'F') mTrigger = TRIG_FREE;
+                else if (arg == 'P') mTrigger = TRIG_POSITIVE;
+                else if (arg == 'N') mTrigger = TRIG_NEGATIVE;
+                break;
+            case 'B':
+            case 'C':
+                if (arg >= '0' && arg <= '2') {
+                    int mode = (cmd.charAt(0) == 'B') ? BluetoothComm.MODE_BURST : BluetoothComm.MODE_CONTINUOUS;
+                    if (mode != mMode) mSweepIndex = -1; // restart sweep with Force Discard
+                    mMode = mode;
+                    mTimebase = arg - '0';
+                }
+                break;
+            case 'A':
+                int ch = Character.digit(arg, 16);
+                if (ch >= 0) mChannel = ch;
+                break;
+            case 'G':
+                if (arg == '0' || arg == '1') mGpio = arg - '0';
+                break;
+            case 'F':
+                if (arg >= '0' && arg <= '2') mFraming = arg - '0';
+                break;
+        }
+    }
+
+    private double sampleRate() {
+        if (mSampleRate > 0) return mSampleRate;
+        return (mMode == BluetoothComm.MODE_BURST) ? BURST_RATE[mTimebase] : CONT_RATE[mTimebase];
+    }
+
+    /*
+     * Burstモード: 1フレーム分を取り込んでから送信
+     */
+    private void sendBurst() throws IOException, InterruptedException {
+        int n = mFrameLength;
+        double fs = sampleRate();
+        ensureBuffer(n);
+
+        // trigger : start the frame at the rising/falling crossing of the signal
+        if (mTrigger == TRIG_POSITIVE) mPhase = 0;
+        else if (mTrigger == TRIG_NEGATIVE) mPhase = 0.5;
+
+        Signal s = mSignal[mChannel];
+        for (int i = 0; i < n; i++) {
+            mFrame[i] = (short) nextSample(s, fs);
+        }
+        pace(n / fs); // acquisition time
+
+        int len;
+        if (mFraming == FRAMING_LEGACY) {
+            len = SampleEncoder.encodeBurst(mFrame, n, mOut, 0);
+        }
+        else {
+            len = encodeFrame(n, SampleDecoder.PACKED_BURST_EOR, 0);
+        }
+        mDataOut.write(mOut, 0, len);
+        mDataOut.flush();
+        mFramesSent++;
+        mSamplesSent += n;
+        mBytesSent += len;
+        if (mLinkRate > 0) pace(len * 8 / mLinkRate); // transfer time
+
+        if (mRun == RUN_SINGLE) mRun = RUN_STOP;
+    }
+
+    /*
+     * Continuousモード: サンプリングしながら少しずつ送信
+     */
+    private void sendContinuous() throws IOException, InterruptedException {
+        int n = mFrameLength;
+        double fs = sampleRate();
+        int k = Math.max(1, Math.min(n, (int) (fs * PACKET_TIME)));
+        ensureBuffer(k);
+
+        int len = 0;
+        if (mSweepIndex < 0) {
+            mOut[len++] = (byte) SampleEncoder.DISCARD;
+            mSweepIndex = 0;
+        }
+        Signal s = mSignal[mChannel];
+        boolean sweepEnd = false;
+        for (int i = 0; i < k; i++) {
+            mFrame[i] = (short) nextSample(s, fs);
+            if (++mSweepIndex >= n) {
+                mSweepIndex = 0;
+                sweepEnd = true;
+                k = i + 1; // end this packet at the end of sweep
+            }
+        }
+        pace(k / fs); // acquisition time
+
+        // the last sample of the packet carries EOS, or EOR at the end of sweep
+        if (mFraming == FRAMING_LEGACY) {
+            for (int i = 0; i < k; i++) {
+                int tag = (i < k - 1) ? SampleEncoder.TAG_CONT : sweepEnd ? SampleEncoder.TAG_CONT_EOR : SampleEncoder.TAG_CONT_EOS;
+                len = SampleEncoder.encodeSample(mFrame[i], tag, mOut, len);
+            }
+        }
+        else {
+            len = encodeFrame(k, sweepEnd ? SampleDecoder.PACKED_CONT_EOR : SampleDecoder.PACKED_CONT_EOS, len);
+        }
+
+        mDataOut.write(mOut, 0, len);
+        mDataOut.flush();
+        mSamplesSent += k;
+        mBytesSent += len;
+        if (sweepEnd) {
+            mFramesSent++;
+            if (mRun == RUN_SINGLE) mRun = RUN_STOP;
+        }
+    }
+
+    /*
+     * mFrameのnサンプルをPacked/Delta形式でmOut[pos]以降にエンコード
+     */
+    private int encodeFrame(int n, int type, int pos) {
+        if (mFraming == FRAMING_DELTA) {
+            return SampleEncoder.encodeDelta(mFrame, 0, n, type, mOut, pos);
+        }
+        return SampleEncoder.encodePacked(mFrame, 0, n, type, mOut, pos);
+    }
+
+    private void ensureBuffer(int n) {
+        if (mFrame == null || mFrame.length < n) {
+            mFrame = new short[n];
+            int size = Math.max(SampleEncoder.burstSize(n), SampleEncoder.packedSize(n));
+            mOut = new byte[Math.max(size, SampleEncoder.deltaMaxSize(n)) + 1];
+        }
+    }
+
+    /*
+     * 入力信号の次のサンプル値を生成
+     */
+    private int nextSample(Signal s, double fs) {
+        double y;
+        double ph = mPhase;
+        switch (s.waveform) {
+            case WAVE_SINE:
+                y = Math.sin(2 * Math.PI * ph);
+                break;
+            case WAVE_SQUARE:
+                y = (ph < 0.5) ? 1 : -1;
+                break;
+            case WAVE_TRIANGLE:
+                y = (ph < 0.25) ? 4 * ph : (ph < 0.75) ? 2 - 4 * ph : 4 * ph - 4;
+                break;
+            case WAVE_SAWTOOTH:
+                y = (ph < 0.5) ? 2 * ph : 2 * ph - 2;
+                break;
+            default:
+                y = 0;
+                break;
+        }
+        mPhase += s.frequency / fs;
+        mPhase -= Math.floor(mPhase);
+
+        int v = (int) Math.round(s.offset + s.amplitude * y);
+        if (s.noise > 0) v += mRandom.nextInt(s.noise * 2 + 1) - s.noise;
+        return Math.max(0, Math.min(1023, v));
+    }
+
+    /*
+     * 経過時間の管理 (シミュレーション時間をmSpeed倍で実時間に合わせる)
+     */
+    private void pace(double seconds) throws InterruptedException {
+        mSimTime += seconds;
+        double speed = mSpeed;
+        if (speed <= 0) return;
+        long target = mWallBase + (long) (mSimTime * 1e9 / speed);
+        long wait = target - System.nanoTime();
+        if (wait > 0) Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+    }
+
+    private void rebase() {
+        mWallBase = System.nanoTime();
+        mSimTime = 0;
+    }
+}
@@ -0,0 +1,269 @@
+package com.seiryuan.android.oscilloscope_bt;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ProbeSimulator end-to-end test with BluetoothComm over LoopbackTransport (runs on the development machine).
+ */
+public class ProbeSimulatorTest {
+
+    private static final int FRAME_LEN = 480;
+
+    private static class NullListener implements BluetoothComm.StatusListener {
+        @Override
+        public void onStateChange(int state) {
+        }
+
+        @Override
+        public void onDeviceName(String name) {
+        }
+
+        @Override
+        public void onToast(String message) {
+        }
+    }
+
+    // wait for a new frame satisfying the mode
+    private static boolean awaitFrame(BluetoothComm comm, FrameSnapshot snap, int mode) throws Exception {
+        long deadline = System.nanoTime() + 5000000000L;
+        while (System.nanoTime() < deadline) {
+            comm.getDataReadySignal().await(50);
+            if (comm.readFrame(snap) && snap.mode == mode) return true;
+        }
+        return false;
+    }
+
+    // connect BluetoothComm to the simulator and wait for STATE_CONNECTED
+    private static BluetoothComm connect(final ServerSocket server, final ProbeSimulator probe) throws Exception {
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    Socket s = server.accept();
+                    probe.start(s);
+                } catch (Exception e) {
+                    // test fails on frame timeout
+                }
+            }
+        };
+        acceptor.start();
+
+        BluetoothComm comm = new BluetoothComm(new NullListener());
+        comm.initBuffer(FRAME_LEN);
+        comm.connect(new LoopbackTransport("127.0.0.1", server.getLocalPort()));
+        long t0 = System.nanoTime();
+        while (comm.getState() != BluetoothComm.STATE_CONNECTED && System.nanoTime() - t0 < 5000000000L) {
+            Thread.sleep(5);
+        }
+        return comm;
+    }
+
+    @Test
+    public void commands_controlTheSampleStream() throws Exception {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        ProbeSimulator probe = new ProbeSimulator();
+        probe.setSpeed(20);
+        probe.setLinkRate(2e6);
+        ProbeSimulator.Signal dc = probe.getSignal(2);
+        dc.waveform = ProbeSimulator.WAVE_DC;
+        dc.offset = 300;
+        probe.getSignal(3).noise = 50;
+
+        BluetoothComm comm = connect(server, probe);
+        FrameSnapshot snap = new FrameSnapshot(FRAME_LEN);
+        try {
+            // burst frames of the DC input
+            assertTrue(awaitFrame(comm, snap, BluetoothComm.MODE_BURST));
+            assertTrue(awaitFrame(comm, snap, BluetoothComm.MODE_BURST));
+            for (int i = 0; i < FRAME_LEN; i++) assertEquals(300, snap.samples[i]);
+
+            // channel select and continuous mode
+            comm.write("A3\n".getBytes());
+            comm.write("C2\n".getBytes());
+            probe.setSampleRate(48000);
+            assertTrue(awaitFrame(comm, snap, BluetoothComm.MODE_CONTINUOUS));
+            assertEquals(3, probe.getChannel());
+            assertEquals(BluetoothComm.MODE_CONTINUOUS, probe.getMode());
+
+            // single shot : exactly one frame, then stop
+            comm.write("R0\n".getBytes());
+            long t0 = System.nanoTime();
+            while (probe.getRunState() != ProbeSimulator.RUN_STOP && System.nanoTime() - t0 < 5000000000L) {
+                Thread.sleep(5);
+            }
+            long frames = probe.getFramesSent();
+            comm.write("B1\n".getBytes());
+            comm.write("R2\n".getBytes());
+            assertTrue(awaitFrame(comm, snap, BluetoothComm.MODE_BURST));
+            Thread.sleep(100);
+            assertEquals(ProbeSimulator.RUN_STOP, probe.getRunState());
+            assertEquals(frames + 1, probe.getFramesSent());
+            assertEquals(5, probe.getCommandCount());
+        } finally {
+            comm.disconnect();
+            probe.stop();
+            server.close();
+        }
+    }
+
+    @Test
+    public void compactFramings_areSelectedByCommand() throws Exception {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        ProbeSimulator probe = new ProbeSimulator();
+        probe.setSpeed(20);
+        probe.getSignal(2).waveform = ProbeSimulator.WAVE_TRIANGLE;
+
+        BluetoothComm comm = connect(server, probe);
+        FrameSnapshot snap = new FrameSnapshot(FRAME_LEN);
+        try {
+            comm.write("F1\n".getBytes());
+            long t0 = System.nanoTime();
+            while (probe.getFraming() != ProbeSimulator.FRAMING_PACKED && System.nanoTime() - t0 < 5000000000L) {
+                Thread.sleep(5);
+            }
+            long frames = probe.getFramesSent();
+            long bytes = probe.getBytesSent();
+            assertTrue(awaitFrame(comm, snap, BluetoothComm.MODE_BURST));
+            assertTrue(awaitFrame(comm, snap, BluetoothComm.MODE_BURST));
+            assertEquals(FRAME_LEN, snap.length);
+            for (int i = 1; i < FRAME_LEN; i++) {
+                assertTrue(Math.abs(snap.samples[i] - snap.samples[i - 1]) < 20); // no corrupted sample
+            }
+            long sent = probe.getFramesSent() - frames;
+            long expected = SampleEncoder.packedSize(FRAME_LEN) * sent;
+            assertTrue(Math.abs(probe.getBytesSent() - bytes - expected) <= SampleEncoder.packedSize(FRAME_LEN)); // +-1 frame in flight
+
+            comm.write("C2\n".getBytes());
+            assertTrue(awaitFrame(comm, snap, BluetoothComm.MODE_CONTINUOUS));
+
+            // delta framing
+            comm.write("F2\n".getBytes());
+            comm.write("B1\n".getBytes());
+            assertTrue(awaitFrame(comm, snap, BluetoothComm.MODE_BURST));
+            assertTrue(awaitFrame(comm, snap, BluetoothComm.MODE_BURST));
+            assertEquals(ProbeSimulator.FRAMING_DELTA, probe.getFraming());
+            for (int i = 1; i < FRAME_LEN; i++) {
+                assertTrue(Math.abs(snap.samples[i] - snap.samples[i - 1]) < 20);
+            }
+            assertEquals(0, comm.getStats().get(AcquisitionStats.UNKNOWN));
+            assertEquals(0, comm.getStats().get(AcquisitionStats.ORPHANS));
+        } finally {
+            comm.disconnect();
+            probe.stop();
+            server.close();
+        }
+    }
+
+    @Test
+    public void disconnect_flushesCommandsWithoutBlocking() throws Exception {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        ProbeSimulator probe = new ProbeSimulator();
+        probe.setLinkRate(2e6);
+
+        BluetoothComm comm = connect(server, probe);
+        try {
+            FrameSnapshot snap = new FrameSnapshot(FRAME_LEN);
+            assertTrue(awaitFrame(comm, snap, BluetoothComm.MODE_BURST));
+            assertEquals(-1, comm.getTeardownTime());
+
+            // queued just before disconnect : must still reach the probe
+            comm.write("A2\n".getBytes());
+            comm.write("R0\n".getBytes());
+            long t0 = System.nanoTime();
+            comm.disconnect();
+            long blocked = System.nanoTime() - t0;
+            assertEquals(BluetoothComm.STATE_NONE, comm.getState());
+
+            while (comm.getTeardownTime() < 0 && System.nanoTime() - t0 < 5000000000L) {
+                Thread.sleep(5);
+            }
+            long teardown = comm.getTeardownTime();
+            System.out.printf("Disconnect: caller blocked %.2f msec, teardown %.1f msec%n", blocked / 1e6, teardown / 1e6);
+
+            assertTrue(blocked < 50000000L);
+            assertTrue(teardown > 0 && teardown < 500000000L);
+            while (probe.getCommandCount() < 2 && System.nanoTime() - t0 < 5000000000L) {
+                Thread.sleep(5); // sent before the socket was closed, the probe reads them afterwards
+            }
+            assertEquals(2, probe.getCommandCount());
+            assertEquals(ProbeSimulator.RUN_STOP, probe.getRunState());
+        } finally {
+            comm.disconnect();
+            probe.stop();
+            server.close();
+        }
+    }
+
+    @Test
+    public void lostConnection_isResumedWithLastSettings() throws Exception {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        final ProbeSimulator[] probes = {new ProbeSimulator(), new ProbeSimulator()};
+        final Socket[] sockets = new Socket[2];
+        for (ProbeSimulator p : probes) p.setLinkRate(2e6);
+
+        // the same endpoint serves a fresh probe (default settings) on every connection
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < probes.length; i++) {
+                        sockets[i] = server.accept();
+                        probes[i].start(sockets[i]);
+                    }
+                } catch (Exception e) {
+                    // test fails on frame timeout
+                }
+            }
+        };
+        acceptor.start();
+
+        BluetoothComm comm = new BluetoothComm(new NullListener());
+        comm.initBuffer(FRAME_LEN);
+        comm.setReconnectPolicy(new ReconnectPolicy(20, 100, 5, new Random(1)));
+        comm.connect(new LoopbackTransport("127.0.0.1", server.getLocalPort()));
+        try {
+            FrameSnapshot snap = new FrameSnapshot(FRAME_LEN);
+            assertTrue(awaitState(comm, BluetoothComm.STATE_CONNECTED));
+            comm.write("A3\n".getBytes());
+            comm.write("C2\n".getBytes());
+            comm.write("TN\n".getBytes());
+            assertTrue(awaitFrame(comm, snap, BluetoothComm.MODE_CONTINUOUS));
+
+            // link loss
+            probes[0].stop();
+            sockets[0].close();
+            acceptor.join(5000);
+            assertTrue(awaitState(comm, BluetoothComm.STATE_CONNECTED));
+            assertTrue(awaitFrame(comm, snap, BluetoothComm.MODE_CONTINUOUS));
+            long t0 = System.nanoTime();
+            while (comm.getRecoveryTime() < 0 && System.nanoTime() - t0 < 5000000000L) {
+                Thread.sleep(5);
+            }
+            System.out.printf("Reconnect: first frame %.1f msec after the loss%n", comm.getRecoveryTime() / 1e6);
+
+            assertEquals(1, comm.getReconnectCount());
+            assertTrue(comm.getRecoveryTime() > 0);
+            assertEquals(3, probes[1].getChannel());
+            assertEquals(BluetoothComm.MODE_CONTINUOUS, probes[1].getMode());
+            assertEquals(ProbeSimulator.TRIG_NEGATIVE, probes[1].getTrigger());
+        } finally {
+            comm.disconnect();
+            for (ProbeSimulator p : probes) p.stop();
+            server.close();
+        }
+    }
+
+    private static boolean awaitState(BluetoothComm comm, int state) throws Exception {
+        long t0 = System.nanoTime();
+        while (comm.getState() != state) {
+            if (System.nanoTime() - t0 > 5000000000L) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,35 @@
+package com.seiryuan.android.oscilloscope_bt;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ReconnectPolicy local unit test (runs on the development machine).
+ */
+public class ReconnectPolicyTest {
+
+    @Test
+    public void delay_growsExponentiallyWithJitter() throws Exception {
+        ReconnectPolicy policy = new ReconnectPolicy(100, 1000, 6, new Random(42));
+        long[] ceiling = {100, 200, 400, 800, 1000, 1000};
+        for (int attempt = 0; attempt < ceiling.length; attempt++) {
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (int n = 0; n < 200; n++) {
+                long d = policy.getDelay(attempt);
+                min = Math.min(min, d);
+                max = Math.max(max, d);
+            }
+            assertTrue(min >= ceiling[attempt] / 2);
+            assertTrue(max <= ceiling[attempt]);
+            assertTrue(max > min); // jittered
+        }
+        long late = policy.getDelay(100); // no overflow of the shift
+        assertTrue(late >= 500 && late <= 1000);
+        assertTrue(policy.shouldRetry(5));
+        assertFalse(policy.shouldRetry(6));
+    }
+}
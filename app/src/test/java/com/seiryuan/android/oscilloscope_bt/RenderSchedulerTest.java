@@ -0,0 +1,77 @@
+package com.seiryuan.android.oscilloscope_bt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * RenderScheduler local unit test (runs on the development machine).
+ */
+public class RenderSchedulerTest {
+
+    private static class FakeView implements RenderScheduler.Target {
+        int renders;
+        final List<Runnable> posted = new ArrayList<>();
+        final List<Long> delays = new ArrayList<>();
+
+        @Override
+        public void requestRender() {
+            renders++;
+        }
+
+        @Override
+        public boolean postDelayed(Runnable action, long delayMillis) {
+            posted.add(action);
+            delays.add(delayMillis);
+            return true;
+        }
+    }
+
+    @Test
+    public void requests_areCoalescedUntilNextFrame() throws Exception {
+        FakeView view = new FakeView();
+        RenderScheduler scheduler = new RenderScheduler(view);
+        scheduler.request();
+        scheduler.request();
+        scheduler.request();
+        assertEquals(1, view.renders);
+
+        scheduler.onFrame(System.nanoTime());
+        scheduler.request();
+        assertEquals(2, view.renders);
+        assertTrue(view.posted.isEmpty());
+    }
+
+    @Test
+    public void maxFrameRate_delaysEarlyRequests() throws Exception {
+        FakeView view = new FakeView();
+        RenderScheduler scheduler = new RenderScheduler(view);
+        scheduler.setMaxFrameRate(10);
+        scheduler.onFrame(System.nanoTime());
+        scheduler.request();
+        assertEquals(0, view.renders);
+        assertEquals(1, view.posted.size());
+        assertTrue(view.delays.get(0) > 50 && view.delays.get(0) <= 100);
+
+        Thread.sleep(view.delays.get(0));
+        view.posted.get(0).run();
+        assertEquals(1, view.renders);
+    }
+
+    @Test
+    public void laterRequest_isReplacedByEarlierOne() throws Exception {
+        FakeView view = new FakeView();
+        RenderScheduler scheduler = new RenderScheduler(view);
+        scheduler.requestAfter(1000); // diagnostics refresh
+        assertEquals(0, view.renders);
+        scheduler.request(); // new data
+        assertEquals(1, view.renders);
+
+        scheduler.onFrame(System.nanoTime());
+        view.posted.get(0).run(); // stale refresh : the frame has been drawn already
+        assertEquals(1, view.renders);
+    }
+}
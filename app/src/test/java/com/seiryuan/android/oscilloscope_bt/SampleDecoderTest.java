@@ -0,0 +1,276 @@
+package com.seiryuan.android.oscilloscope_bt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * SampleDecoder local unit test (runs on the development machine).
+ */
+public class SampleDecoderTest {
+
+    // SPP practical line rate (approx. 2Mbit/s) in samples/sec for the 2byte legacy format
+    private static final double SPP_SAMPLES_PER_SEC = 2000000.0 / 8 / 2;
+
+    private static class Recorder implements SampleDecoder.Callback {
+        int[] values = new int[4096];
+        int[] modes = new int[4096];
+        int count;
+        int frames;
+        int sweeps;
+        int discards;
+
+        @Override
+        public void onSample(int mode, int value) {
+            values[count] = value;
+            modes[count] = mode;
+            count++;
+        }
+
+        @Override
+        public void onFrame(int mode, int marker) {
+            if (marker == SampleDecoder.MARKER_END_OF_RECORD) frames++;
+            else sweeps++;
+        }
+
+        @Override
+        public void onDiscard() {
+            discards++;
+        }
+    }
+
+    private static class Counter implements SampleDecoder.Callback {
+        long samples;
+        long frames;
+        long sum;
+
+        @Override
+        public void onSample(int mode, int value) {
+            samples++;
+            sum += value;
+        }
+
+        @Override
+        public void onFrame(int mode, int marker) {
+            frames++;
+        }
+
+        @Override
+        public void onDiscard() {
+        }
+    }
+
+    // encode one legacy burst frame (High byte + tagged Low byte per sample)
+    private static int encodeBurst(byte[] dst, int pos, int[] samples) {
+        for (int i = 0; i < samples.length; i++) {
+            int tag = (i == samples.length - 1) ? 0x40 : 0x20;
+            dst[pos++] = (byte) ((samples[i] >> 5) & 0x1f);
+            dst[pos++] = (byte) (tag | (samples[i] & 0x1f));
+        }
+        return pos;
+    }
+
+    @Test
+    public void burstFrame_isDecoded() throws Exception {
+        int[] samples = {0, 1, 31, 32, 512, 1023};
+        byte[] data = new byte[samples.length * 2];
+        encodeBurst(data, 0, samples);
+
+        Recorder r = new Recorder();
+        new SampleDecoder(r).feed(data, 0, data.length);
+
+        assertEquals(samples.length, r.count);
+        for (int i = 0; i < samples.length; i++) {
+            assertEquals(samples[i], r.values[i]);
+            assertEquals(BluetoothComm.MODE_BURST, r.modes[i]);
+        }
+        assertEquals(1, r.frames);
+        assertEquals(0, r.sweeps);
+    }
+
+    @Test
+    public void continuousMarkers_areDecoded() throws Exception {
+        byte[] data = {
+                0x10, 0x65,         // Continuous-Low  : 0x205
+                0x00, (byte) 0x81,  // Continuous-EOS  : 0x001
+                0x1f, (byte) 0xbf,  // Continuous-EOR  : 0x3ff
+                (byte) 0xc0,        // Force Discard
+        };
+        Recorder r = new Recorder();
+        new SampleDecoder(r).feed(data, 0, data.length);
+
+        assertEquals(3, r.count);
+        assertEquals(0x205, r.values[0]);
+        assertEquals(0x001, r.values[1]);
+        assertEquals(0x3ff, r.values[2]);
+        assertEquals(BluetoothComm.MODE_CONTINUOUS, r.modes[2]);
+        assertEquals(1, r.sweeps);
+        assertEquals(1, r.frames);
+        assertEquals(1, r.discards);
+    }
+
+    @Test
+    public void highByte_isKeptAcrossReads() throws Exception {
+        byte[] data = {0x15, 0x2a};
+        Recorder r = new Recorder();
+        SampleDecoder decoder = new SampleDecoder(r);
+        decoder.feed(data, 0, 1);
+        decoder.feed(data, 1, 1);
+
+        assertEquals(1, r.count);
+        assertEquals((0x15 << 5) | 0x0a, r.values[0]);
+    }
+
+    @Test
+    public void malformedBytes_areCounted() throws Exception {
+        byte[] data = {
+                0x01, 0x02, 0x25,   // High byte lost its Low byte
+                0x26,               // Low byte without High byte
+                (byte) 0xe5,        // undefined
+                0x03, 0x41,         // Burst-EOR
+        };
+        Recorder r = new Recorder();
+        SampleDecoder decoder = new SampleDecoder(r);
+        decoder.feed(data, 0, data.length);
+
+        assertEquals(3, r.count);
+        assertEquals(2, decoder.getOrphanCount());
+        assertEquals(1, decoder.getUnknownCount());
+        assertEquals(1, r.frames);
+    }
+
+    @Test
+    public void packedFrames_areDecodedAcrossReadBoundaries() throws Exception {
+        short[] samples = new short[11];
+        for (int i = 0; i < samples.length; i++) samples[i] = (short) ((i * 97 + 1) & 0x3ff);
+        samples[10] = 1023;
+        byte[] data = new byte[64];
+        int pos = SampleEncoder.encodePacked(samples, 0, 11, SampleDecoder.PACKED_BURST_EOR, data, 0);
+        pos = SampleEncoder.encodeSample(5, SampleEncoder.TAG_CONT, data, pos); // back to legacy
+        pos = SampleEncoder.encodePacked(samples, 0, 3, SampleDecoder.PACKED_CONT_EOS, data, pos);
+        assertEquals(SampleEncoder.packedSize(11) + 2 + SampleEncoder.packedSize(3), pos);
+
+        // every split position must give the same result
+        for (int split = 0; split <= pos; split++) {
+            Recorder r = new Recorder();
+            SampleDecoder decoder = new SampleDecoder(r);
+            decoder.feed(data, 0, split);
+            decoder.feed(data, split, pos - split);
+
+            assertEquals(15, r.count);
+            for (int i = 0; i < 11; i++) {
+                assertEquals(samples[i], r.values[i]);
+                assertEquals(BluetoothComm.MODE_BURST, r.modes[i]);
+            }
+            assertEquals(5, r.values[11]);
+            assertEquals(samples[2], r.values[14]);
+            assertEquals(BluetoothComm.MODE_CONTINUOUS, r.modes[14]);
+            assertEquals(1, r.frames);
+            assertEquals(1, r.sweeps);
+            assertEquals(0, decoder.getOrphanCount());
+            assertEquals(0, decoder.getUnknownCount());
+        }
+    }
+
+    @Test
+    public void deltaFrames_areDecodedAcrossReadBoundaries() throws Exception {
+        short[] samples = {512, 512, 519, 512, 505, 506, 0, 7, 1023, 1016, 1016, 300, 301};
+        int n = samples.length;
+        byte[] data = new byte[64];
+        int pos = SampleEncoder.encodeDelta(samples, 0, n, SampleDecoder.PACKED_CONT_EOR, data, 0);
+        pos = SampleEncoder.encodeDelta(samples, 1, 2, SampleDecoder.PACKED_BURST_EOR, data, pos); // resync on frame start
+        assertTrue(pos < SampleEncoder.deltaMaxSize(n) + SampleEncoder.deltaMaxSize(2));
+
+        for (int split = 0; split <= pos; split++) {
+            Recorder r = new Recorder();
+            SampleDecoder decoder = new SampleDecoder(r);
+            decoder.feed(data, 0, split);
+            decoder.feed(data, split, pos - split);
+
+            assertEquals(n + 2, r.count);
+            for (int i = 0; i < n; i++) {
+                assertEquals(samples[i], r.values[i]);
+                assertEquals(BluetoothComm.MODE_CONTINUOUS, r.modes[i]);
+            }
+            assertEquals(512, r.values[n]);
+            assertEquals(519, r.values[n + 1]);
+            assertEquals(BluetoothComm.MODE_BURST, r.modes[n + 1]);
+            assertEquals(2, r.frames);
+            assertEquals(0, decoder.getUnknownCount());
+        }
+    }
+
+    @Test
+    public void packedFraming_carriesMoreSamplesThanLegacy() throws Exception {
+        final int frameLen = 480;
+        final int frames = 2000;
+        short[] samples = new short[frameLen];
+        for (int i = 0; i < frameLen; i++) samples[i] = (short) ((i * 7) & 0x3ff);
+        byte[] legacy = new byte[SampleEncoder.burstSize(frameLen) * frames];
+        byte[] packed = new byte[SampleEncoder.packedSize(frameLen) * frames];
+        int legacyLen = 0;
+        int packedLen = 0;
+        for (int f = 0; f < frames; f++) {
+            legacyLen = SampleEncoder.encodeBurst(samples, frameLen, legacy, legacyLen);
+            packedLen = SampleEncoder.encodePacked(samples, 0, frameLen, SampleDecoder.PACKED_BURST_EOR, packed, packedLen);
+        }
+
+        double legacyRate = decodeRate(legacy, legacyLen);
+        double packedRate = decodeRate(packed, packedLen);
+        // samples/sec the SPP link can carry (including frame overhead)
+        double legacyWire = 2000000.0 / 8 * frameLen * frames / legacyLen;
+        double packedWire = 2000000.0 / 8 * frameLen * frames / packedLen;
+        System.out.printf("Framing: legacy %.0f samples/s on SPP (decode %.1f Ms/s), packed %.0f samples/s on SPP (decode %.1f Ms/s), %.2fx%n",
+                legacyWire, legacyRate / 1e6, packedWire, packedRate / 1e6, packedWire / legacyWire);
+
+        assertTrue(packedWire > legacyWire * 1.55);
+        assertTrue(packedRate > packedWire * 20); // decoding never limits the link
+    }
+
+    private static double decodeRate(byte[] data, int len) {
+        Counter c = new Counter();
+        SampleDecoder decoder = new SampleDecoder(c);
+        for (int n = 0; n < 5; n++) decoder.feed(data, 0, len); // warm up
+        c.samples = 0;
+        long t0 = System.nanoTime();
+        for (int n = 0; n < 10; n++) {
+            for (int off = 0; off < len; off += 990) {
+                decoder.feed(data, off, Math.min(990, len - off));
+            }
+        }
+        return c.samples * 1e9 / (System.nanoTime() - t0);
+    }
+
+    @Test
+    public void throughput_exceedsLineRate() throws Exception {
+        final int frameLen = 480;
+        final int frames = 2000;
+        int[] samples = new int[frameLen];
+        for (int i = 0; i < frameLen; i++) samples[i] = (i * 7) & 0x3ff;
+        byte[] data = new byte[frameLen * 2 * frames];
+        int pos = 0;
+        for (int f = 0; f < frames; f++) pos = encodeBurst(data, pos, samples);
+
+        Counter c = new Counter();
+        SampleDecoder decoder = new SampleDecoder(c);
+        // warm up
+        for (int n = 0; n < 5; n++) decoder.feed(data, 0, data.length);
+
+        c.samples = 0;
+        final int rounds = 10;
+        long t0 = System.nanoTime();
+        for (int n = 0; n < rounds; n++) {
+            // feed in 990byte blocks (typical RFCOMM read size)
+            for (int off = 0; off < data.length; off += 990) {
+                decoder.feed(data, off, Math.min(990, data.length - off));
+            }
+        }
+        long elapsed = System.nanoTime() - t0;
+        double rate = c.samples * 1e9 / elapsed;
+        System.out.printf("SampleDecoder: %.1f Msamples/s (%.0fx SPP line rate)%n",
+                rate / 1e6, rate / SPP_SAMPLES_PER_SEC);
+
+        assertEquals((long) frameLen * frames * rounds, c.samples);
+        assertTrue(rate > SPP_SAMPLES_PER_SEC * 20);
+    }
+}
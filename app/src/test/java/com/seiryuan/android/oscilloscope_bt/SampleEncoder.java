@@ -0,0 +1,154 @@
+/*
+ * Oscilloscope - Bluetooth version
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.oscilloscope_bt;
+
+/**
+ * SPP送信データのエンコーダ (プローブ側の形式, SampleDecoderの逆変換)
+ * 従来形式(1サンプル2byte)とPacked形式、Delta形式に対応する
+ * シミュレータ・テストで使用する
+ */
+public class SampleEncoder {
+
+    // Low byte tags
+    public static final int TAG_BURST = 0x20;
+    public static final int TAG_BURST_EOR = 0x40;
+    public static final int TAG_CONT = 0x60;
+    public static final int TAG_CONT_EOS = 0x80;
+    public static final int TAG_CONT_EOR = 0xa0;
+    public static final int DISCARD = 0xc0;
+
+    private SampleEncoder() {
+    }
+
+    /**
+     * 1サンプルをエンコードする (2byte)
+     * @param value サンプル値 (10bit)
+     * @param tag Low byteのタグ (TAG_xxx)
+     * @param dst 格納先
+     * @param pos 格納位置
+     * @return 次の格納位置
+     */
+    public static int encodeSample(int value, int tag, byte[] dst, int pos) {
+        dst[pos] = (byte) ((value >> 5) & 0x1f);
+        dst[pos + 1] = (byte) (tag | (value & 0x1f));
+        return pos + 2;
+    }
+
+    /**
+     * Burstモードの1フレームをエンコードする (最後のサンプルがEOR)
+     * @param samples サンプル値
+     * @param n サンプル数
+     * @param dst 格納先 (n*2 byte以上)
+     * @param pos 格納位置
+     * @return 次の格納位置
+     */
+    public static int encodeBurst(short[] samples, int n, byte[] dst, int pos) {
+        for (int i = 0; i < n; i++) {
+            pos = encodeSample(samples[i], (i == n - 1) ? TAG_BURST_EOR : TAG_BURST, dst, pos);
+        }
+        return pos;
+    }
+
+    /**
+     * Burstモードの1フレームのバイト数
+     */
+    public static int burstSize(int n) {
+        return n * 2;
+    }
+
+    /**
+     * Packed形式の1フレームをエンコードする (4サンプル毎5byte)
+     * @param samples サンプル値
+     * @param off 先頭位置
+     * @param n サンプル数 (65535以下)
+     * @param type SampleDecoder.PACKED_BURST_EOR, PACKED_CONT_EOS, PACKED_CONT_EOR
+     * @param dst 格納先 (packedSize(n) byte以上)
+     * @param pos 格納位置
+     * @return 次の格納位置
+     */
+    public static int encodePacked(short[] samples, int off, int n, int type, byte[] dst, int pos) {
+        dst[pos++] = (byte) (SampleDecoder.PACKED_HEADER | type);
+        dst[pos++] = (byte) n;
+        dst[pos++] = (byte) (n >> 8);
+        for (int i = 0; i < n; i += 4) {
+            long bits = 0;
+            int m = Math.min(4, n - i);
+            for (int k = 0; k < m; k++) {
+                bits |= (long) (samples[off + i + k] & 0x3ff) << (k * 10);
+            }
+            for (int k = 0; k < 5; k++) {
+                dst[pos++] = (byte) (bits >>> (k * 8));
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Packed形式の1フレームのバイト数
+     */
+    public static int packedSize(int n) {
+        return 3 + (n + 3) / 4 * 5;
+    }
+
+    /**
+     * Delta形式の1フレームをエンコードする (1サンプル4bitの差分, 範囲外はescape+12bit)
+     * @param samples サンプル値
+     * @param off 先頭位置
+     * @param n サンプル数 (65535以下)
+     * @param type SampleDecoder.PACKED_BURST_EOR, PACKED_CONT_EOS, PACKED_CONT_EOR
+     * @param dst 格納先 (deltaMaxSize(n) byte以上)
+     * @param pos 格納位置
+     * @return 次の格納位置
+     */
+    public static int encodeDelta(short[] samples, int off, int n, int type, byte[] dst, int pos) {
+        dst[pos++] = (byte) (SampleDecoder.DELTA_HEADER | type);
+        dst[pos++] = (byte) n;
+        dst[pos++] = (byte) (n >> 8);
+
+        int acc = 0;    // nibbles not yet stored
+        int count = 0;  // number of nibbles in acc
+        int prev = 0;
+        for (int i = 0; i < n; i++) {
+            int v = samples[off + i] & 0x3ff;
+            int d = v - prev;
+            if (i > 0 && d >= -7 && d <= 7) {
+                acc = (acc << 4) | (d & 0xf);
+                count++;
+            }
+            else { // first sample of the frame or large step
+                acc = (acc << 16) | (SampleDecoder.DELTA_ESCAPE << 12) | v;
+                count += 4;
+            }
+            while (count >= 2) {
+                count -= 2;
+                dst[pos++] = (byte) (acc >> (count * 4));
+            }
+            prev = v;
+        }
+        if (count > 0) dst[pos++] = (byte) (acc << 4); // pad the last byte
+        return pos;
+    }
+
+    /**
+     * Delta形式の1フレームの最大バイト数 (全サンプルがescapeの場合)
+     */
+    public static int deltaMaxSize(int n) {
+        return 3 + n * 2;
+    }
+}
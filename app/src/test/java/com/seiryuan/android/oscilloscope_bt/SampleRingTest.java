@@ -0,0 +1,81 @@
+package com.seiryuan.android.oscilloscope_bt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * SampleRing local unit test (runs on the development machine).
+ */
+public class SampleRingTest {
+
+    @Test
+    public void readLatest_returnsPublishedSamplesOnly() throws Exception {
+        SampleRing ring = new SampleRing(16);
+        for (int i = 0; i < 10; i++) ring.put(i);
+        ring.publish();
+        ring.put(100); // not published
+
+        short[] dst = new short[4];
+        assertEquals(10, ring.readLatest(dst, 0, 4, 0));
+        assertArrayEquals(new short[]{6, 7, 8, 9}, dst);
+
+        ring.rollback();
+        ring.put(10);
+        ring.publish();
+        ring.readLatest(dst, 0, 4, 1);
+        assertArrayEquals(new short[]{10, 7, 8, 9}, dst);
+    }
+
+    @Test
+    public void idleConsumer_doesNotStallProducer() throws Exception {
+        SampleRing ring = new SampleRing(16);
+        short[] dst = new short[8];
+        for (int i = 0; i < 8; i++) ring.put(i);
+        ring.publish();
+        assertEquals(8, ring.readLatest(dst, 0, 8, 0)); // pinned only while copying
+
+        // consumer stops reading : the oldest samples are overwritten
+        for (int i = 0; i < 64; i++) assertTrue(ring.put(1000 + i));
+        assertTrue(ring.publish());
+        assertEquals(0, ring.getOverruns());
+        assertEquals(72, ring.readLatest(dst, 0, 4, 0));
+        assertArrayEquals(new short[]{1060, 1061, 1062, 1063, 4, 5, 6, 7}, dst);
+
+        // a frame which has been overwritten is not copied
+        assertFalse(ring.read(8, dst, 0, 8, 0));
+        assertEquals(1060, dst[0]);
+    }
+
+    @Test
+    public void concurrentFrames_areNeverTorn() throws Exception {
+        final int frameLen = 480;
+        final SampleRing ring = new SampleRing(frameLen * 8);
+        final long deadline = System.nanoTime() + 300000000L;
+
+        Thread producer = new Thread() {
+            public void run() {
+                int frame = 0;
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < frameLen; i++) ring.put(frame & 0x3ff);
+                    ring.publish();
+                    frame++;
+                }
+            }
+        };
+        producer.start();
+
+        short[] dst = new short[frameLen];
+        int reads = 0;
+        while (producer.isAlive()) {
+            long head = ring.readLatest(dst, 0, frameLen, 0);
+            if (head < frameLen) continue;
+            for (int i = 1; i < frameLen; i++) {
+                if (dst[i] != dst[0]) fail("torn frame at read " + reads + ", index " + i);
+            }
+            reads++;
+        }
+        producer.join();
+        assertTrue(reads > 0);
+    }
+}
@@ -0,0 +1,80 @@
+package com.seiryuan.android.oscilloscope_bt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * SampleStore local unit test (runs on the development machine).
+ */
+public class SampleStoreTest {
+
+    private static final int CHUNK = SampleStore.CHUNK_SIZE;
+
+    @Test
+    public void anyWindow_isReadAcrossChunks() throws Exception {
+        SampleStore store = new SampleStore(4L * CHUNK * 2);
+        assertEquals(4L * CHUNK, store.capacity());
+        for (int i = 0; i < CHUNK * 3 + 100; i++) store.append(i & 0x3ff);
+        assertEquals(0, store.getHead());
+        store.publish();
+        assertEquals(CHUNK * 3 + 100, store.getHead());
+
+        short[] dst = new short[1000];
+        assertEquals(1000, store.read(CHUNK * 2 - 500, dst, 0, 1000));
+        for (int k = 0; k < 1000; k++) assertEquals((CHUNK * 2 - 500 + k) & 0x3ff, dst[k]);
+
+        // clipped at the published end
+        assertEquals(100, store.read(CHUNK * 3, dst, 0, 1000));
+        assertEquals(0, store.read(CHUNK * 3 + 100, dst, 0, 1000));
+    }
+
+    @Test
+    public void oldestChunk_isEvictedWithinBudget() throws Exception {
+        SampleStore store = new SampleStore(2L * CHUNK * 2);
+        long total = CHUNK * 5 + 7;
+        for (long i = 0; i < total; i++) assertTrue(store.append((int) i & 0x3ff));
+        store.publish();
+
+        // 2 chunks retained : the chunk being written and the previous one
+        assertEquals(CHUNK * 4, store.getFirst());
+        short[] dst = new short[16];
+        assertEquals(-1, store.read(CHUNK * 4 - 1, dst, 0, 16));
+        assertEquals(16, store.read(CHUNK * 4, dst, 0, 16));
+        assertEquals(0, dst[0]);
+        assertEquals(0, store.getOverruns());
+    }
+
+    @Test
+    public void concurrentReads_neverSeeRecycledData() throws Exception {
+        final SampleStore store = new SampleStore(2L * CHUNK * 2);
+        final long deadline = System.nanoTime() + 300000000L;
+
+        Thread producer = new Thread() {
+            public void run() {
+                long pos = 0;
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < 1000; i++) {
+                        if (store.append((int) pos & 0x3ff)) pos++;
+                    }
+                    store.publish();
+                }
+            }
+        };
+        producer.start();
+
+        short[] dst = new short[4096];
+        int reads = 0;
+        while (producer.isAlive()) {
+            long start = store.getFirst(); // the oldest data is the first to be recycled
+            int n = store.read(start, dst, 0, dst.length);
+            if (n < 0) continue;
+            for (int k = 0; k < n; k++) {
+                if (dst[k] != ((start + k) & 0x3ff)) fail("recycled data at read " + reads + ", index " + k);
+            }
+            reads++;
+        }
+        producer.join();
+        assertTrue(reads > 0);
+    }
+}
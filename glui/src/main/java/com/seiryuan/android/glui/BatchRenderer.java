@@ -0,0 +1,309 @@
+/*
+ * GLUI - OpenGL based GUI library
+ * BatchRenderer.java: draws the primitive tree with as few draw calls as possible
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.glui;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import android.opengl.GLES20;
+
+/**
+ * Primitiveツリーをまとめて描画するレンダラ
+ *
+ * TRIANGLE_STRIPのPrimitiveは、ワールド座標へ変換済みの頂点と頂点カラーをバッチ用VBOに(指定の頂点形式で)並べ、
+ * 縮退三角形でつないだ1本のストリップとして描画する。
+ * それ以外(Line, LineStripなど)は従来通り個別に描画し、描画順はツリーの順序を保つ。
+ * バッチは毎フレームの巡回で状態を照合し、位置・色・表示状態・頂点のいずれかが変わった時だけ作り直す。
+ */
+class BatchRenderer {
+
+	// batch vertex: x, y, (z), u, v, r, g, b, a
+	private static final int INITIAL_VERTICES = 4096;
+
+	// recorded state of each entry (world position, rotation, color)
+	private static final int STATE_SIZE = 7;
+
+	private final GLUI mGLUI;
+
+	private VertexFormat mFormat = VertexFormat.FLOAT.withColor();
+	private ByteBuffer mArray;
+	private int mVertexCount;
+	private final int[] mBuffer = new int[1];
+
+	// entries visited by the last build (strip or immediate primitive, in tree order)
+	private Primitive[] mEntryPrim = new Primitive[256];
+	private int[] mEntryFirst = new int[256];
+	private int[] mEntryCount = new int[256];
+	private float[] mEntryState = new float[256 * STATE_SIZE];
+	private int mEntries;
+
+	// draw commands: batched run (mCmdPrim == null) or immediate primitive
+	private Primitive[] mCmdPrim = new Primitive[64];
+	private int[] mCmdFirst = new int[64];
+	private int[] mCmdCount = new int[64];
+	private int mCommands;
+
+	// traversal state
+	private boolean mBuilding;
+	private int mCursor;
+	private boolean mStale = true;
+	private volatile boolean mVertexChanged;
+	private boolean mUploaded;
+	private int mRebuilds;
+
+	BatchRenderer(GLUI glui) {
+		mGLUI = glui;
+		mArray = ByteBuffer.allocateDirect(INITIAL_VERTICES * mFormat.getStride()).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * バッチ用VBOの頂点形式 (次の描画でバッチを作り直す)
+	 */
+	void setFormat(VertexFormat format) {
+		VertexFormat f = format.withColor();
+		if(f == mFormat) return;
+		mFormat = f;
+		mStale = true;
+	}
+
+	VertexFormat getFormat() {
+		return mFormat;
+	}
+
+	void onSurfaceCreated() {
+		GLES20.glGenBuffers(1, mBuffer, 0);
+		mUploaded = false;
+	}
+
+	/**
+	 * バッチに含まれる頂点が書き換えられた (GLUI.setVertex*から呼ばれる)
+	 */
+	void invalidate() {
+		mVertexChanged = true;
+	}
+
+	/**
+	 * ツリーを描画する
+	 * @param world ツリーの最上位
+	 */
+	void draw(Primitive world) {
+		// compare the tree with the last build, rebuild on any difference
+		mBuilding = false;
+		mCursor = 0;
+		mStale |= mVertexChanged;
+		if(!mStale) {
+			world.collect(this);
+			if(mCursor != mEntries) mStale = true;
+		}
+		if(mStale) {
+			build(world);
+		}
+		if(!mUploaded) {
+			upload();
+		}
+
+		for(int i = 0; i < mCommands; i++) {
+			Primitive p = mCmdPrim[i];
+			if(p == null) {
+				mGLUI.bindBatchArray(mBuffer[0], mFormat);
+				mGLUI.drawArrays(GLES20.GL_TRIANGLE_STRIP, mCmdFirst[i], mCmdCount[i]);
+			}
+			else {
+				p.drawImmediate(mCmdFirst[i], mCmdCount[i]);
+			}
+		}
+	}
+
+	private void build(Primitive world) {
+		mVertexChanged = false;
+		mGLUI.clearBatchedVertex();
+		mBuilding = true;
+		mCursor = 0;
+		mEntries = 0;
+		mCommands = 0;
+		mVertexCount = 0;
+		world.collect(this);
+		mEntries = mCursor;
+		mBuilding = false;
+		mStale = false;
+		mUploaded = false;
+		mRebuilds++;
+	}
+
+	private void upload() {
+		int stride = mFormat.getStride();
+		mArray.position(0);
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffer[0]);
+		// re-specify the whole store (orphans the storage still in use by the GPU)
+		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, Math.max(mVertexCount, 1) * stride, mArray, GLES20.GL_DYNAMIC_DRAW);
+		mGLUI.checkGlError("glBufferData");
+		mGLUI.countUpload(mVertexCount * stride);
+		mUploaded = true;
+	}
+
+	/**
+	 * TRIANGLE_STRIPの頂点列をバッチに加える
+	 * @param p 頂点を持つPrimitive (ワールド座標を計算済みであること)
+	 * @param first 先頭の頂点番号
+	 * @param count 頂点数
+	 */
+	void addStrip(Primitive p, int first, int count) {
+		if(count <= 0) return;
+		if(!mBuilding) {
+			check(p, first, count, true);
+			return;
+		}
+		record(p, first, count);
+
+		// join to the previous strip with degenerate triangles
+		boolean join = (mCommands > 0) && (mCmdPrim[mCommands - 1] == null);
+		ensure(count + (join ? 2 : 0));
+		if(!join) {
+			addCommand(null, mVertexCount, 0);
+		}
+
+		// mark before copying : a write from the UI thread during the copy invalidates the batch
+		mGLUI.markBatchedVertex(first, first + count);
+		FloatBuffer src = mGLUI.getVertexArray();
+		double rad = Math.toRadians(p.mRotZ);
+		float c = (float)Math.cos(rad);
+		float s = (float)Math.sin(rad);
+		if(join) {
+			int stride = mFormat.getStride();
+			int last = (mVertexCount - 1) * stride;
+			for(int k = 0; k < stride; k++) mArray.put(last + stride + k, mArray.get(last + k));
+			mVertexCount++;
+			putVertex(src, first, p, c, s);
+		}
+		for(int i = 0; i < count; i++) {
+			putVertex(src, first + i, p, c, s);
+		}
+		mCmdCount[mCommands - 1] = mVertexCount - mCmdFirst[mCommands - 1];
+	}
+
+	/**
+	 * バッチにできない頂点列を、個別の描画として加える
+	 */
+	void addImmediate(Primitive p, int first, int count) {
+		if(count <= 0) return;
+		if(!mBuilding) {
+			check(p, first, count, false);
+			return;
+		}
+		record(p, first, count);
+		addCommand(p, first, count);
+	}
+
+	private void putVertex(FloatBuffer src, int index, Primitive p, float c, float s) {
+		int i = index * 5;
+		float x = src.get(i);
+		float y = src.get(i + 1);
+		mFormat.put(mArray, mVertexCount, c * x - s * y + p.mPosWX, s * x + c * y + p.mPosWY, src.get(i + 2), src.get(i + 3), src.get(i + 4));
+		mFormat.putColor(mArray, mVertexCount, p.mColorR, p.mColorG, p.mColorB, p.mColorA);
+		mVertexCount++;
+	}
+
+	private void check(Primitive p, int first, int count, boolean strip) {
+		if(mStale) return;
+		int e = mCursor++;
+		if(e >= mEntries || mEntryPrim[e] != p || mEntryFirst[e] != first || mEntryCount[e] != count) {
+			mStale = true;
+			return;
+		}
+		if(!strip) return; // immediate entries are drawn with the live state
+		int k = e * STATE_SIZE;
+		float[] st = mEntryState;
+		if(st[k] != p.mPosWX || st[k + 1] != p.mPosWY || st[k + 2] != p.mRotZ
+				|| st[k + 3] != p.mColorR || st[k + 4] != p.mColorG || st[k + 5] != p.mColorB || st[k + 6] != p.mColorA) {
+			mStale = true;
+		}
+	}
+
+	private void record(Primitive p, int first, int count) {
+		int e = mCursor++;
+		if(e == mEntryPrim.length) {
+			int n = e * 2;
+			mEntryPrim = Arrays.copyOf(mEntryPrim, n);
+			mEntryFirst = Arrays.copyOf(mEntryFirst, n);
+			mEntryCount = Arrays.copyOf(mEntryCount, n);
+			mEntryState = Arrays.copyOf(mEntryState, n * STATE_SIZE);
+		}
+		mEntryPrim[e] = p;
+		mEntryFirst[e] = first;
+		mEntryCount[e] = count;
+		int k = e * STATE_SIZE;
+		mEntryState[k] = p.mPosWX;
+		mEntryState[k + 1] = p.mPosWY;
+		mEntryState[k + 2] = p.mRotZ;
+		mEntryState[k + 3] = p.mColorR;
+		mEntryState[k + 4] = p.mColorG;
+		mEntryState[k + 5] = p.mColorB;
+		mEntryState[k + 6] = p.mColorA;
+	}
+
+	private void addCommand(Primitive p, int first, int count) {
+		if(mCommands == mCmdPrim.length) {
+			int n = mCommands * 2;
+			mCmdPrim = Arrays.copyOf(mCmdPrim, n);
+			mCmdFirst = Arrays.copyOf(mCmdFirst, n);
+			mCmdCount = Arrays.copyOf(mCmdCount, n);
+		}
+		mCmdPrim[mCommands] = p;
+		mCmdFirst[mCommands] = first;
+		mCmdCount[mCommands] = count;
+		mCommands++;
+	}
+
+	private void ensure(int n) {
+		int need = (mVertexCount + n) * mFormat.getStride();
+		if(need <= mArray.capacity()) return;
+		int size = mArray.capacity();
+		while(size < need) size *= 2;
+		ByteBuffer a = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+		mArray.position(0);
+		mArray.limit(mVertexCount * mFormat.getStride());
+		a.put(mArray);
+		mArray.clear();
+		mArray = a;
+	}
+
+	/**
+	 * バッチ用VBOの頂点数
+	 */
+	int getVertexCount() {
+		return mVertexCount;
+	}
+
+	/**
+	 * バッチ用の頂点データ (テスト用)
+	 */
+	ByteBuffer getArray() {
+		return mArray;
+	}
+
+	/**
+	 * バッチを作り直した回数
+	 */
+	int getRebuildCount() {
+		return mRebuilds;
+	}
+}
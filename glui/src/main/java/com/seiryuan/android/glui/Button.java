@@ -51,6 +51,7 @@ public class Button extends Primitive {
     public void setPosition(float px, float py) {
         mPosX = px;
         mPosY = py;
+        invalidateTransform();
     }
 
     @Override
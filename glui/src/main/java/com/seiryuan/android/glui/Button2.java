@@ -22,6 +22,7 @@ public class Button2 extends Primitive {
     public void setPosition(float px, float py) {
         mPosX = px;
         mPosY = py;
+        invalidateTransform();
         mSprOFF.setPosition(px, py);
         mSprON.setPosition(px, py);
         mIconOFF.setPosition(px, py);
@@ -69,4 +70,16 @@ public class Button2 extends Primitive {
             mIconOFF.draw();
         }
     }
+
+    @Override
+    protected void collect(BatchRenderer b) {
+        if(mState) {
+            mSprON.collect(b);
+            mIconON.collect(b);
+        }
+        else {
+            mSprOFF.collect(b);
+            mIconOFF.collect(b);
+        }
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * GLUI - OpenGL based GUI library
+ * DirtyRanges.java: set of modified vertex ranges waiting for upload
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.glui;
+
+/**
+ * 書き換えられた頂点範囲 [start, end) の集合
+ * 範囲数が上限を超えた場合は、最も近い範囲同士を結合する (転送量は少し増えるが、転送回数を抑える)
+ */
+class DirtyRanges {
+	static final int MAX_RANGES = 8;
+
+	private final int[] mStart = new int[MAX_RANGES];
+	private final int[] mEnd = new int[MAX_RANGES];
+	private int mCount;
+	private int mLast; // most recently extended range (fast path for sequential writes)
+
+	/**
+	 * 範囲を追加する
+	 * @param start 先頭の頂点番号
+	 * @param end 末尾の次の頂点番号
+	 */
+	void add(int start, int end) {
+		if(mCount > 0 && start <= mEnd[mLast] && end >= mStart[mLast]) {
+			// overlaps or touches the last range
+			if(start >= mStart[mLast] && end <= mEnd[mLast]) return;
+			mStart[mLast] = Math.min(mStart[mLast], start);
+			mEnd[mLast] = Math.max(mEnd[mLast], end);
+			merge(mLast);
+			return;
+		}
+		for(int i = 0; i < mCount; i++) {
+			if(start <= mEnd[i] && end >= mStart[i]) {
+				mStart[i] = Math.min(mStart[i], start);
+				mEnd[i] = Math.max(mEnd[i], end);
+				merge(i);
+				return;
+			}
+		}
+		if(mCount == MAX_RANGES) {
+			// join into the nearest range
+			int best = 0;
+			int bestGap = Integer.MAX_VALUE;
+			for(int i = 0; i < mCount; i++) {
+				int gap = (start > mEnd[i]) ? start - mEnd[i] : mStart[i] - end;
+				if(gap < bestGap) {
+					bestGap = gap;
+					best = i;
+				}
+			}
+			mStart[best] = Math.min(mStart[best], start);
+			mEnd[best] = Math.max(mEnd[best], end);
+			merge(best);
+			return;
+		}
+		mStart[mCount] = start;
+		mEnd[mCount] = end;
+		mLast = mCount;
+		mCount++;
+	}
+
+	// absorb ranges which now overlap range i
+	private void merge(int i) {
+		boolean merged = true;
+		while(merged) {
+			merged = false;
+			for(int j = mCount - 1; j >= 0; j--) {
+				if(j == i || mStart[j] > mEnd[i] || mEnd[j] < mStart[i]) continue;
+				mStart[i] = Math.min(mStart[i], mStart[j]);
+				mEnd[i] = Math.max(mEnd[i], mEnd[j]);
+				mCount--;
+				mStart[j] = mStart[mCount];
+				mEnd[j] = mEnd[mCount];
+				if(i == mCount) i = j;
+				merged = true;
+			}
+		}
+		mLast = i;
+	}
+
+	void clear() {
+		mCount = 0;
+		mLast = 0;
+	}
+
+	int size() {
+		return mCount;
+	}
+
+	int getStart(int i) {
+		return mStart[i];
+	}
+
+	int getEnd(int i) {
+		return mEnd[i];
+	}
+
+	/**
+	 * 全範囲の頂点数の合計
+	 */
+	int getVertexCount() {
+		int n = 0;
+		for(int i = 0; i < mCount; i++) n += mEnd[i] - mStart[i];
+		return n;
+	}
+}
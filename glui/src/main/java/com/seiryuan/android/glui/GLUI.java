@@ -24,6 +24,7 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
 
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -86,20 +87,59 @@ public class GLUI {
     int muColorHandle;
     private int maPositionHandle;
     private int maTextureHandle;
+    private int maColorHandle;
+
+    //波形用シェーダー (Waveform: ADCの生の値を頂点シェーダで座標に変換する)
+    private int mWaveProgram;
+    int muWaveMVPMatrixHandle;
+    int muWaveColorHandle;
+    int muWaveMappingHandle;
+    int muWaveCalibrationHandle;
+    int muWaveIndexScaleHandle;
+    int maWaveIndexHandle;
+    int maWaveCodeHandle;
+    int mContextSerial; // incremented when the GL context is (re)created
 
     //視点マトリクス
     private float[] mViewMatrix;
     private float[] mProjMatrix;
     float[] mVPMatrix = new float[16];
+    int mVPSerial; // incremented when mVPMatrix changes
+    private final float[] mBoundMVP = new float[16]; // matrix set to uMVPMatrix
+    private boolean mBoundMVPValid;
+    private int mMatrixUploads;
 
 
     //VertexBufferの定義
     private FloatBuffer mVertexArray;
     private static final int FLOAT_SIZE_BYTES = 4;	//Float値のByte数=4
     private static final int VERTICES_DATA_STRIDE_BYTES = 5 * FLOAT_SIZE_BYTES; //1頂点の要素数×5Byte
-    private static final int VERTICES_ARRAY_SIZE = 5000 * VERTICES_DATA_STRIDE_BYTES; //200頂点
-    private static final int VERTICES_DATA_POS_OFFSET = 0; //頂点内のxyz値のオフセット=0
-    private static final int VERTICES_DATA_UV_OFFSET = 3; //頂点内のUV値のオフセット=3
+    private static final int VERTICES_ARRAY_SIZE = 8192 * VERTICES_DATA_STRIDE_BYTES; //初期サイズ8192頂点 (足りなくなったら倍に拡張)
+    private static final float[] ZEROS = new float[256 * 5]; //頂点のクリア用
+    private final VertexAllocator mAllocator = new VertexAllocator();
+    private int mVertexCapacity; //頂点配列の大きさ (頂点数)
+
+    //VertexBufferObject (GPU側の頂点バッファ)
+    //2つのVBOを交互に使い、前フレームの描画中のバッファには書き込まない (GPUのストールを避ける)
+    //各VBOは、最後に転送してから書き換えられた頂点範囲だけを受け取る
+    private static final int VBO_COUNT = 2;
+    private final int[] mVertexBuffers = new int[VBO_COUNT];
+    private final DirtyRanges[] mDirty = new DirtyRanges[VBO_COUNT];
+    private int mCurrentVBO;
+    private int mVBOCapacity; // size of the VBO stores (vertices), re-created when the array grows
+    private VertexFormat mVertexFormat = VertexFormat.FLOAT; // layout requested for the VBOs
+    private VertexFormat mVBOFormat; // layout of the current VBO stores
+    private ByteBuffer mUploadStage; // dirty vertices converted to a compact layout
+    private FloatBuffer mUploadView; // view of mVertexArray for glBufferSubData (keeps allocation position)
+    private long mUploadBytes; // total bytes sent to vertex buffers
+    private int mBoundArray; // buffer currently set to the vertex attributes (-1: none)
+
+    //バッチ描画
+    private BatchRenderer mBatch;
+    private boolean mBatching = true;
+    private boolean[] mBatchedVertex; // vertices copied into the batch (guarded by mDirty)
+    private int mDrawCalls;
+    private int mLastDrawCalls;
 
     //テクスチャ
     public float mTextureSize; //テクスチャサイズ（正方形の辺：pixel）
@@ -115,9 +155,16 @@ public class GLUI {
         mContext = context;
 
         // Init Vertex Buffer
+        mVertexCapacity = VERTICES_ARRAY_SIZE/VERTICES_DATA_STRIDE_BYTES;
         mVertexArray = ByteBuffer.allocateDirect(VERTICES_ARRAY_SIZE).order(ByteOrder.nativeOrder()).asFloatBuffer();
         //mVertexArray.put(mTriangleVerticesData1).mVertexPos(0);
         mVertexArray.position(0);
+        mUploadView = mVertexArray.duplicate();
+        mBatchedVertex = new boolean[mVertexCapacity];
+        mBatch = new BatchRenderer(this);
+        for(int i = 0; i < VBO_COUNT; i++) {
+            mDirty[i] = new DirtyRanges();
+        }
 
         mViewMatrix = new float[16];
         mProjMatrix = new float[16];
@@ -166,16 +213,241 @@ public class GLUI {
 	}
 
 	public int getVertexPosition() {
-        return mVertexArray.position()/5;
+        synchronized(mDirty) {
+            return mAllocator.getTop();
+        }
 	}
 
+    /**
+     * 頂点をn個確保し、0でクリアする (配列が足りなければ拡張する)
+     * @return 先頭の頂点番号
+     */
     public int allocVertex(int n) {
-        int pos = mVertexArray.position()/5;
-        for(int i = 0; i < n*5; i++) {
-            mVertexArray.put(0f);
+        int pos;
+        synchronized(mDirty) {
+            pos = mAllocator.alloc(n);
+            if(mAllocator.getTop() > mVertexCapacity) {
+                growVertexArray(mAllocator.getTop());
+            }
+            // reused ranges still hold old vertices
+            for(int i = 0; i < n*5; i += ZEROS.length) {
+                mVertexArray.position(pos*5 + i);
+                mVertexArray.put(ZEROS, 0, Math.min(ZEROS.length, n*5 - i));
+            }
         }
+        markDirty(pos, pos + n);
         return pos;
     }
+
+    /**
+     * allocVertex()で確保した頂点を解放する (解放後は再利用される)
+     */
+    public void releaseVertex(int pos, int n) {
+        synchronized(mDirty) {
+            mAllocator.free(pos, n);
+        }
+    }
+
+    // 頂点配列を作り直して内容をコピーする (VBOは次のdraw()で作り直す)
+    private void growVertexArray(int need) {
+        int capacity = mVertexCapacity;
+        while(capacity < need) capacity *= 2;
+        FloatBuffer array = ByteBuffer.allocateDirect(capacity*VERTICES_DATA_STRIDE_BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mVertexArray.position(0);
+        array.put(mVertexArray);
+        mVertexArray = array;
+        mUploadView = array.duplicate();
+        mBatchedVertex = Arrays.copyOf(mBatchedVertex, capacity);
+        mVertexCapacity = capacity;
+    }
+
+    /**
+     * 頂点配列の大きさ (頂点数)
+     */
+    public int getVertexCapacity() {
+        synchronized(mDirty) {
+            return mVertexCapacity;
+        }
+    }
+
+    /**
+     * 確保中の頂点数
+     */
+    public int getVertexUsed() {
+        synchronized(mDirty) {
+            return mAllocator.getUsed();
+        }
+    }
+
+    /**
+     * 解放されて再利用を待っている頂点数
+     */
+    public int getVertexFree() {
+        synchronized(mDirty) {
+            return mAllocator.getFreeVertices();
+        }
+    }
+
+    /**
+     * 解放されて再利用を待っている範囲の数 (断片化の目安)
+     */
+    public int getVertexFreeBlocks() {
+        synchronized(mDirty) {
+            return mAllocator.getFreeBlocks();
+        }
+    }
+
+    // 書き換えた頂点範囲を全VBOの転送待ちに加える (タッチ処理のUIスレッドからも呼ばれる)
+    private void markDirty(int start, int end) {
+        synchronized(mDirty) {
+            for(int i = 0; i < VBO_COUNT; i++) {
+                mDirty[i].add(start, end);
+            }
+            // checked under the lock : the batch marks a range before copying it
+            for(int i = start; i < end; i++) {
+                if(mBatchedVertex[i]) {
+                    mBatch.invalidate();
+                    break;
+                }
+            }
+        }
+    }
+
+    void clearBatchedVertex() {
+        synchronized(mDirty) {
+            Arrays.fill(mBatchedVertex, false);
+        }
+    }
+
+    /*
+     * バッチにコピーする頂点範囲を登録する (コピーの前に呼ぶこと。
+     * 登録後の書き換えはinvalidate()され、登録前の書き換えはコピーに含まれる)
+     */
+    void markBatchedVertex(int start, int end) {
+        synchronized(mDirty) {
+            Arrays.fill(mBatchedVertex, start, end, true);
+        }
+    }
+
+    FloatBuffer getVertexArray() {
+        return mVertexArray;
+    }
+
+    BatchRenderer getBatchRenderer() {
+        return mBatch;
+    }
+
+    void countUpload(int bytes) {
+        mUploadBytes += bytes;
+    }
+
+    /**
+     * VBOへ転送した頂点データの累計
+     * @return 転送バイト数
+     */
+    public long getUploadBytes() {
+        return mUploadBytes;
+    }
+
+    /**
+     * 頂点配列用VBOの頂点形式 (次の描画でVBOを作り直す)
+     * 頂点の書き換えにはFLOAT/COMPACTによる違いはなく、転送時に変換する
+     */
+    public void setVertexFormat(VertexFormat format) {
+        synchronized(mDirty) {
+            mVertexFormat = format;
+        }
+    }
+
+    public VertexFormat getVertexFormat() {
+        return mVertexFormat;
+    }
+
+    /**
+     * バッチ用VBOの頂点形式 (頂点カラーが加わる)
+     */
+    public void setBatchFormat(VertexFormat format) {
+        mBatch.setFormat(format);
+    }
+
+    /**
+     * バッチ描画の有効/無効 (無効の場合はPrimitive毎に描画する)
+     */
+    public void setBatching(boolean batching) {
+        mBatching = batching;
+    }
+
+    public boolean isBatching() {
+        return mBatching;
+    }
+
+    /**
+     * 直前のフレームで発行したDrawCallの数
+     */
+    public int getDrawCalls() {
+        return mLastDrawCalls;
+    }
+
+    /**
+     * 登録されたすべてのPrimitiveを描画する (initDraw()の後に呼ぶ)
+     * 頂点の書き換えはinitDraw()とdraw()の間に行ってもよい (このフレームに反映される)
+     */
+    public void draw() {
+        flushVertices();
+        if(mBatching) {
+            mBatch.draw(world);
+        }
+        else {
+            world.draw();
+        }
+    }
+
+    /**
+     * uMVPMatrixを設定する (同じ行列が設定済みの場合は転送しない)
+     */
+    void setMVPMatrix(float[] m) {
+        if(mBoundMVPValid && Arrays.equals(mBoundMVP, m)) return;
+        System.arraycopy(m, 0, mBoundMVP, 0, 16);
+        mBoundMVPValid = true;
+        GLES20.glUniformMatrix4fv(muMVPMatrixHandle, 1, false, m, 0);
+        mMatrixUploads++;
+    }
+
+    int getMatrixUploads() {
+        return mMatrixUploads;
+    }
+
+    /**
+     * アニメーション中のPrimitiveがあるか (描画を続ける必要があるか)
+     */
+    public boolean isAnimating() {
+        return world.isAnimating();
+    }
+
+    /**
+     * 波形用シェーダーに切り替える (描画後はendWaveform()を呼ぶ)
+     */
+    void beginWaveform() {
+        GLES20.glUseProgram(mWaveProgram);
+        checkGlError("glUseProgram wave");
+        mBoundArray = -1;
+    }
+
+    /**
+     * 通常のシェーダーと頂点配列に戻す
+     * uniformはプログラム毎に保持されるので、uMVPMatrixの設定済みの値はそのまま使える
+     */
+    void endWaveform() {
+        GLES20.glUseProgram(mProgram);
+        checkGlError("glUseProgram");
+        bindVertexArray();
+    }
+
+    void drawArrays(int type, int first, int count) {
+        GLES20.glDrawArrays(type, first, count);
+        checkGlError("glDrawArrays");
+        mDrawCalls++;
+    }
 /*
 	void addVertex(float x, float y, float z, float u, float v) {
 		mVertexArray.put(x);
@@ -189,17 +461,20 @@ public class GLUI {
 		mVertexArray.put(index*5, x);
 		mVertexArray.put(index*5+1, y);
         mVertexArray.put(index*5+2, 0f);
+        markDirty(index, index + 1);
 	}
 
     public void setVertexXYZ(int index, float x, float y, float z) {
         mVertexArray.put(index*5, x);
         mVertexArray.put(index*5+1, y);
         mVertexArray.put(index*5+2, z);
+        markDirty(index, index + 1);
     }
 
     public void setVertexUV(int index, float u, float v) {
         mVertexArray.put(index*5+3, u);
         mVertexArray.put(index*5+4, v);
+        markDirty(index, index + 1);
     }
 
 	public void initDraw() {
@@ -215,21 +490,106 @@ public class GLUI {
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureID);
 
-        // VertexArray内の座標値(PositionHandle)をOGLに設定
-        mVertexArray.position(VERTICES_DATA_POS_OFFSET);
-        GLES20.glVertexAttribPointer(maPositionHandle, 3, GLES20.GL_FLOAT, false, VERTICES_DATA_STRIDE_BYTES, mVertexArray);
-        checkGlError("glVertexAttribPointer maPosition");
-        GLES20.glEnableVertexAttribArray(maPositionHandle);
-        checkGlError("glEnableVertexAttribArray maPositionHandle");
+        mLastDrawCalls = mDrawCalls;
+        mDrawCalls = 0;
+	}
 
-        // VertexArray内のUV値(TextureHandle)をOGLに設定
-        mVertexArray.position(VERTICES_DATA_UV_OFFSET);
-        GLES20.glVertexAttribPointer(maTextureHandle, 2, GLES20.GL_FLOAT, false, VERTICES_DATA_STRIDE_BYTES, mVertexArray);
-        checkGlError("glVertexAttribPointer maTextureHandle");
-        GLES20.glEnableVertexAttribArray(maTextureHandle);
-        checkGlError("glEnableVertexAttribArray maTextureHandle");
+    /*
+     * 最初のDrawCallの前に、このフレームで書き換えられた頂点をVBOへ転送する
+     */
+    private void flushVertices() {
+        // 頂点配列が拡張されていたら、VBOを作り直して全体を転送
+        synchronized(mDirty) {
+            if((mVBOCapacity != mVertexCapacity)||(mVBOFormat != mVertexFormat)) {
+                createVertexBuffers();
+            }
+        }
 
-	}
+        // 今回使うVBOへ、書き換えられた範囲だけを転送
+        mCurrentVBO = (mCurrentVBO + 1) % VBO_COUNT;
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBuffers[mCurrentVBO]);
+        uploadDirty(mDirty[mCurrentVBO]);
+
+        mBoundArray = -1;
+        bindVertexArray();
+    }
+
+    /**
+     * 頂点属性にGLUIの頂点配列を設定する (頂点カラーは白で固定)
+     */
+    void bindVertexArray() {
+        int vbo = mVertexBuffers[mCurrentVBO];
+        if(mBoundArray == vbo) return;
+        mBoundArray = vbo;
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+
+        // VBO内の座標値(PositionHandle)とUV値(TextureHandle)をOGLに設定
+        // 頂点カラーは使わない (色はuColorで指定)
+        mVBOFormat.bind(maPositionHandle, maTextureHandle, maColorHandle);
+        checkGlError("glVertexAttribPointer");
+    }
+
+    /**
+     * 頂点属性にバッチ用VBOを設定する
+     * バッチの頂点はワールド座標・頂点カラー付きなので、MVPにはVPを、uColorには白を設定する
+     */
+    void bindBatchArray(int vbo, VertexFormat format) {
+        if(mBoundArray != vbo) {
+            mBoundArray = vbo;
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+            format.bind(maPositionHandle, maTextureHandle, maColorHandle);
+            checkGlError("glVertexAttribPointer batch");
+        }
+        setMVPMatrix(mVPMatrix);
+        GLES20.glUniform4f(muColorHandle, 1.0f, 1.0f, 1.0f, 1.0f);
+    }
+
+    // VBOの領域を頂点配列の大きさで確保する (内容は失われるので、確保済みの頂点をすべて送り直す)
+    private void createVertexBuffers() {
+        for(int i = 0; i < VBO_COUNT; i++) {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBuffers[i]);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mVertexCapacity*mVertexFormat.getStride(), null, GLES20.GL_DYNAMIC_DRAW);
+        }
+        checkGlError("glBufferData");
+        mVBOCapacity = mVertexCapacity;
+        mVBOFormat = mVertexFormat;
+        if(mAllocator.getTop() > 0) markDirty(0, mAllocator.getTop());
+        mBoundArray = -1;
+    }
+
+    // 頂点配列の範囲をVBOの頂点形式に変換する
+    private ByteBuffer stage(int start, int count) {
+        int size = count*mVBOFormat.getStride();
+        if(mUploadStage == null || mUploadStage.capacity() < size) {
+            mUploadStage = ByteBuffer.allocateDirect(Math.max(size, 4096)).order(ByteOrder.nativeOrder());
+        }
+        for(int i = 0; i < count; i++) {
+            int p = (start + i)*5;
+            mVBOFormat.put(mUploadStage, i, mVertexArray.get(p), mVertexArray.get(p+1), mVertexArray.get(p+2), mVertexArray.get(p+3), mVertexArray.get(p+4));
+        }
+        mUploadStage.position(0);
+        return mUploadStage;
+    }
+
+    private void uploadDirty(DirtyRanges dirty) {
+        synchronized(mDirty) {
+            for(int i = 0; i < dirty.size(); i++) {
+                int start = dirty.getStart(i);
+                int count = dirty.getEnd(i) - start;
+                int stride = mVBOFormat.getStride();
+                if(mVBOFormat == VertexFormat.FLOAT) {
+                    mUploadView.position(start*5);
+                    GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, start*stride, count*stride, mUploadView);
+                }
+                else {
+                    GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, start*stride, count*stride, stage(start, count));
+                }
+                mUploadBytes += count*stride;
+            }
+            dirty.clear();
+        }
+        checkGlError("glBufferSubData");
+    }
 
 	/*
 	 * Update display geometry and create Viewport-Matrix
@@ -283,6 +643,7 @@ public class GLUI {
         Matrix.frustumM(mProjMatrix, 0, -view_size, view_size, -fb_aspect*view_size, fb_aspect*view_size, 1.0f, 7);
         Matrix.setLookAtM(mViewMatrix, 0, 0.0f, 0.0f, -4.0f, 0f, 0f, 0f, 0f, -1.0f, 0.0f);
         Matrix.multiplyMM(mVPMatrix, 0, mProjMatrix, 0, mViewMatrix, 0);
+        mVPSerial++;
     }
 
 	public void onSurfaceCreated() {
@@ -305,18 +666,44 @@ public class GLUI {
 	        throw new RuntimeException("Could not get attrib location for aTextureCoord");
 	    }
 
+	    maColorHandle = GLES20.glGetAttribLocation(mProgram, "aColor");
+	    checkGlError("glGetAttribLocation aColor");
+	    if (maColorHandle == -1) {
+	        throw new RuntimeException("Could not get attrib location for aColor");
+	    }
+
 	    // Initialize UniformVariable
 	    muMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
 	    checkGlError("glGetUniformLocation uMVPMatrix");
 	    if (muMVPMatrixHandle == -1) {
 	        throw new RuntimeException("Could not get uniform location for uMVPMatrix");
 	    }
+	    mBoundMVPValid = false;
 	    muColorHandle = GLES20.glGetUniformLocation(mProgram, "uColor");
 	    checkGlError("glGetUniformLocation uColor");
 	    if (muColorHandle == -1) {
 	        throw new RuntimeException("Could not get uniform location for uColor");
 	    }
 
+	    // Create vertex buffers (contents are lost with the context, so send all vertices again)
+	    GLES20.glGenBuffers(VBO_COUNT, mVertexBuffers, 0);
+	    synchronized(mDirty) {
+	        createVertexBuffers();
+	    }
+	    mBatch.onSurfaceCreated();
+
+	    // Waveform shader
+	    mWaveProgram = createProgram(mWaveVertexShader, mWaveFragmentShader);
+	    maWaveIndexHandle = GLES20.glGetAttribLocation(mWaveProgram, "aIndex");
+	    maWaveCodeHandle = GLES20.glGetAttribLocation(mWaveProgram, "aCode");
+	    muWaveMVPMatrixHandle = GLES20.glGetUniformLocation(mWaveProgram, "uMVPMatrix");
+	    muWaveColorHandle = GLES20.glGetUniformLocation(mWaveProgram, "uColor");
+	    muWaveMappingHandle = GLES20.glGetUniformLocation(mWaveProgram, "uMapping");
+	    muWaveCalibrationHandle = GLES20.glGetUniformLocation(mWaveProgram, "uCalibration");
+	    muWaveIndexScaleHandle = GLES20.glGetUniformLocation(mWaveProgram, "uIndexScale");
+	    checkGlError("glGetUniformLocation wave");
+	    mContextSerial++;
+
 	    // Create texture
 	    int[] textures = new int[1];
 	    GLES20.glGenTextures(1, textures, 0);
@@ -467,26 +854,63 @@ public class GLUI {
         "uniform mat4 uMVPMatrix;\n" +
         "attribute vec4 aPosition;\n" +
         "attribute vec2 aTextureCoord;\n" +
+        "attribute vec4 aColor;\n" +
         "varying vec2 vTextureCoord;\n" +
+        "varying vec4 vColor;\n" +
         "void main() {\n" +
         "  gl_Position = uMVPMatrix * aPosition;\n" +
         "  vTextureCoord = aTextureCoord;\n" +
+        "  vColor = aColor;\n" +
         "}\n";
 
     /**
      * fragment shader source code
-     * テクスチャRGBA×UniformRGBA →出力
+     * テクスチャRGBA×UniformRGBA×頂点カラー →出力
      */
     private static final String mFragmentShader =
         "precision mediump float;\n" +
         "varying vec2 vTextureCoord;\n" +
+        "varying vec4 vColor;\n" +
         "uniform sampler2D sTexture;\n" +
         "uniform vec4 uColor;\n" +
         "vec4 tmpColor;\n" +
+        "vec4 mixColor;\n" +
         "void main() {\n" +
         "  tmpColor = texture2D(sTexture, vTextureCoord);\n" +
-        "  gl_FragColor.rgb = tmpColor.rgb*uColor.rgb*uColor.a;\n" +
-        "  gl_FragColor.a = tmpColor.a*uColor.a;\n" +
+        "  mixColor = uColor*vColor;\n" +
+        "  gl_FragColor.rgb = tmpColor.rgb*mixColor.rgb*mixColor.a;\n" +
+        "  gl_FragColor.a = tmpColor.a*mixColor.a;\n" +
+        "}\n";
+
+    /**
+     * waveform vertex shader source code
+     * aIndex: 点の番号, aCode: ADCの値 (どちらも整数のまま転送)
+     * x = floor(index * uIndexScale) * step + origin
+     * y = (code * calibration.gain + calibration.offset) * gain + offset
+     */
+    private static final String mWaveVertexShader =
+        "uniform mat4 uMVPMatrix;\n" +
+        "uniform vec4 uMapping;\n" +
+        "uniform vec2 uCalibration;\n" +
+        "uniform float uIndexScale;\n" +
+        "attribute float aIndex;\n" +
+        "attribute float aCode;\n" +
+        "void main() {\n" +
+        "  float x = floor(aIndex * uIndexScale) * uMapping.x + uMapping.y;\n" +
+        "  float v = aCode * uCalibration.x + uCalibration.y;\n" +
+        "  gl_Position = uMVPMatrix * vec4(x, v * uMapping.z + uMapping.w, 0.0, 1.0);\n" +
+        "}\n";
+
+    /**
+     * waveform fragment shader source code
+     * UniformRGBA →出力 (通常のシェーダーで白のテクセルを使った場合と同じ色)
+     */
+    private static final String mWaveFragmentShader =
+        "precision mediump float;\n" +
+        "uniform vec4 uColor;\n" +
+        "void main() {\n" +
+        "  gl_FragColor.rgb = uColor.rgb*uColor.a;\n" +
+        "  gl_FragColor.a = uColor.a;\n" +
         "}\n";
 
 }
@@ -28,7 +28,7 @@ public class Line extends Primitive {
 		super(glui, p);
 		mType = GLES20.GL_LINES;
 		mNumVertex = n;
-		mVertexPos = mGLUI.allocVertex(n);
+		allocVertex(n);
 		mPosX = 0f;
 		mPosY = 0f;
 		mColorR = 1.0f;
@@ -23,12 +23,14 @@ import android.opengl.GLES20;
 
 public class LineStrip extends Primitive {
 	private float mTexU, mTexV;
+	private int mMaxVertex;
 
 	public LineStrip(GLUI glui, Primitive p, int n) {
 		super(glui, p);
 		mType = GLES20.GL_LINE_STRIP;
 		mNumVertex = n;
-		mVertexPos = mGLUI.allocVertex(n);
+		mMaxVertex = n;
+		allocVertex(n);
 		mPosX = 0f;
 		mPosY = 0f;
 		mColorR = 1.0f;
@@ -42,7 +44,7 @@ public class LineStrip extends Primitive {
 	public void setTexture(float u0, float v0) {
 		mTexU = u0;
 		mTexV = v0;
-		for(int i = 0; i < mNumVertex; i++) {
+		for(int i = 0; i < mMaxVertex; i++) {
 			mGLUI.setVertexUV(mVertexPos+i,  mTexU/mGLUI.mTextureSize,  mTexV/mGLUI.mTextureSize);
 		}
 	}
@@ -50,4 +52,13 @@ public class LineStrip extends Primitive {
 	public void setVertex(int n, float x0, float y0) {
 		mGLUI.setVertexXY(mVertexPos+n,  x0,  y0);
 	}
+
+	// number of vertices to draw (up to the allocated size)
+	public void setNumVertex(int n) {
+		mNumVertex = Math.min(n, mMaxVertex);
+	}
+
+	public int getMaxVertex() {
+		return mMaxVertex;
+	}
 }
\ No newline at end of file
@@ -37,7 +37,7 @@ public class NinePatch extends Primitive {
 		super(glui, p);
 		mType = GLES20.GL_TRIANGLE_STRIP;
 		mNumVertex = 24; //3strip x 8vertices
-		mVertexPos = mGLUI.allocVertex(24);
+		allocVertex(24);
 		mPosX = 0;
 		mPosY = 0;
 		mTexU = 0;
@@ -53,7 +53,7 @@ public class NinePatch extends Primitive {
 		super(glui, p);
 		mType = GLES20.GL_TRIANGLE_STRIP;
 		mNumVertex = 24; //3strip x 8vertices
-		mVertexPos = mGLUI.allocVertex(24);
+		allocVertex(24);
 		mPosX = x;
 		mPosY = y;
 		mWidth = w;
@@ -147,12 +147,25 @@ public class NinePatch extends Primitive {
         setColorMatrix();
 
         // Draw Call for 3strips
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, mVertexPos, 8);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, mVertexPos+8, 8);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, mVertexPos+16, 8);
-		mGLUI.checkGlError("glDrawArrays");
+        mGLUI.drawArrays(GLES20.GL_TRIANGLE_STRIP, mVertexPos, 8);
+		mGLUI.drawArrays(GLES20.GL_TRIANGLE_STRIP, mVertexPos+8, 8);
+		mGLUI.drawArrays(GLES20.GL_TRIANGLE_STRIP, mVertexPos+16, 8);
 
         // Draw child primitives
 		drawChildren();
     }
+
+	@Override
+	protected void collect(BatchRenderer b) {
+
+		// nothing to do for disabled primitive
+		if(!mValid) return;
+
+		updateWorldPosition();
+		b.addStrip(this, mVertexPos, 8);
+		b.addStrip(this, mVertexPos+8, 8);
+		b.addStrip(this, mVertexPos+16, 8);
+
+		collectChildren(b);
+	}
 }
\ No newline at end of file
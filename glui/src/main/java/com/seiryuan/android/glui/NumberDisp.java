@@ -43,7 +43,7 @@ public class NumberDisp extends Primitive {
 		mLength = 0;
 		mMaxLen = len;
 		mNumVertex = mMaxLen * 6; // vertecis*4 + dummy*2 (to form single strip)
-		mVertexPos = mGLUI.allocVertex(mNumVertex);
+		allocVertex(mNumVertex);
 	}
 
 	public void setValue(int digit, int fmt, int value) {
@@ -146,11 +146,24 @@ public class NumberDisp extends Primitive {
         setColorMatrix();
 
         for(int i = 0; i < mLength; i++) {
-            GLES20.glDrawArrays(mType, mVertexPos+i*6, 4);
-            mGLUI.checkGlError("glDrawArrays");
+            mGLUI.drawArrays(mType, mVertexPos+i*6, 4);
         }
 
         // Draw child primitives
         drawChildren();
     }
+
+    @Override
+    protected void collect(BatchRenderer b) {
+
+        // nothing to do for disabled primitive
+        if(!mValid) return;
+
+        updateWorldPosition();
+        for(int i = 0; i < mLength; i++) {
+            b.addStrip(this, mVertexPos+i*6, 4);
+        }
+
+        collectChildren(b);
+    }
 }
\ No newline at end of file
@@ -21,7 +21,6 @@ package com.seiryuan.android.glui;
 
 import java.util.ArrayList;
 import android.opengl.GLES20;
-import android.opengl.Matrix;
 
 public class Primitive {
 
@@ -36,6 +35,7 @@ public class Primitive {
     protected int mType;            // primitive mType
     protected int mVertexPos;       // position in vertex array
     protected int mNumVertex;       // number of vertex
+    protected int mAllocVertex;     // number of vertices allocated in the vertex array
 
 	protected float mPosX, mPosY;   // position (relative to mParent)
     protected float mPosWX, mPosWY; // position (world coordinate)
@@ -58,9 +58,14 @@ public class Primitive {
     protected boolean mPosAnimValid;
     protected boolean mScaleAnimValid;
 
-    protected float[] mTmpMatrix = new float[16];
-	protected float[] mLocalMatrix = new float[16];
-	protected float[] mViewMatrix = new float[16];
+	protected float[] mViewMatrix = new float[16]; // cached MVP matrix
+
+    // transform cache (world position is recalculated only when the primitive or its parent moved)
+    protected boolean mTransformDirty = true;
+    private int mWorldSerial;       // incremented on every change of world position/rotation
+    private int mParentSerial = -1; // parent's mWorldSerial used for mPosWX/mPosWY
+    private int mMatrixSerial = -1; // mWorldSerial used for mViewMatrix
+    private int mVPSerial = -1;     // GLUI VP matrix serial used for mViewMatrix
 
     public Primitive(GLUI glui) {
         mGLUI = glui;
@@ -126,6 +131,40 @@ public class Primitive {
 		mChildren.add(p);
 	}
 
+    /**
+     * 頂点配列から頂点を確保する (mVertexPosに先頭位置を設定)
+     */
+    protected int allocVertex(int n) {
+        mVertexPos = mGLUI.allocVertex(n);
+        mAllocVertex = n;
+        return mVertexPos;
+    }
+
+    /**
+     * ツリーから外し、子を含めて確保した頂点を解放する (以後は描画されない)
+     * 描画と同じスレッドから呼ぶこと
+     */
+    public void release() {
+        if(mParent != null) {
+            mParent.mChildren.remove(this);
+            mParent = null;
+        }
+        releaseVertex();
+    }
+
+    protected void releaseVertex() {
+        int len = mChildren.size();
+        for(int i = 0; i < len; i++) {
+            mChildren.get(i).releaseVertex();
+        }
+        if(mAllocVertex > 0) {
+            mGLUI.releaseVertex(mVertexPos, mAllocVertex);
+            mAllocVertex = 0;
+        }
+        mNumVertex = 0;
+        mValid = false;
+    }
+
 	public Primitive getParent() {
 		return mParent;
 	}
@@ -133,6 +172,7 @@ public class Primitive {
 	public void setPosition(float x0, float y0) {
 		mPosX = x0;
 		mPosY = y0;
+		invalidateTransform();
 	}
 
 	public void setColor(float r0, float g0, float b0, float alpha0) {
@@ -144,27 +184,73 @@ public class Primitive {
 
 	public void setRotation(float angle) {
 		mRotZ = angle;
+		invalidateTransform();
+	}
+
+	/**
+	 * 位置・回転を直接書き換えた場合に呼ぶ (次の描画で変換行列を再計算する)
+	 */
+	protected void invalidateTransform() {
+		mTransformDirty = true;
 	}
 
 	public void setViewMatrix() {
-        // Calculate perspective trans Matrix
-        /*
-        Matrix.setIdentityM(mTmpMatrix, 0);
-        if(mParent != mGLUI.world) Matrix.translateM(mTmpMatrix, 0, mParent.mPosX, mParent.mPosY, 0.0f);
-        */
-        Matrix.setIdentityM(mTmpMatrix, 0);
+        updateViewMatrix();
+
+        // Set parameters to shader
+        mGLUI.setMVPMatrix(mViewMatrix);
+    }
+
+    // mViewMatrix = VP x world transform (without sending it to the shader)
+    protected void updateViewMatrix() {
+        updateWorldPosition();
+
+        // Calculate MVP = VP x Translation(world) x Rotation(mRotZ) only when changed
+        if((mMatrixSerial != mWorldSerial)||(mVPSerial != mGLUI.mVPSerial)) {
+            mMatrixSerial = mWorldSerial;
+            mVPSerial = mGLUI.mVPSerial;
+            multiplyAffine(mViewMatrix, mGLUI.mVPMatrix, mPosWX, mPosWY, mRotZ);
+        }
+    }
+
+    /*
+     * 2Dアフィン変換(回転＋平行移動)を掛けた行列を求める (Matrix.translateM/rotateM/multiplyMMの代わり)
+     * dst = vp x T(tx, ty) x Rz(angle)  (column-major)
+     */
+    static void multiplyAffine(float[] dst, float[] vp, float tx, float ty, float angle) {
+        float c = 1.0f;
+        float s = 0f;
+        if(angle != 0f) {
+            double rad = Math.toRadians(angle);
+            c = (float)Math.cos(rad);
+            s = (float)Math.sin(rad);
+        }
+        for(int i = 0; i < 4; i++) {
+            float x = vp[i];
+            float y = vp[4 + i];
+            dst[i] = c * x + s * y;
+            dst[4 + i] = c * y - s * x;
+            dst[8 + i] = vp[8 + i];
+            dst[12 + i] = tx * x + ty * y + vp[12 + i];
+        }
+    }
+
+    // world coordinate (parent's world position must be calculated before)
+    protected void updateWorldPosition() {
+        int ps = 0;
+        boolean child = (mParent != null)&&(mParent != mGLUI.world);
+        if(child) ps = mParent.mWorldSerial;
+        if(!mTransformDirty && (ps == mParentSerial)) return;
+
         mPosWX = mPosX;
         mPosWY = mPosY;
-        if((mParent != null)&&(mParent != mGLUI.world)) {
+        if(child) {
             mPosWX += mParent.mPosWX;
             mPosWY += mParent.mPosWY;
         }
-        Matrix.translateM(mTmpMatrix, 0, mPosWX, mPosWY, 0.0f); // Translastion (world coordinate)
-        Matrix.rotateM(mLocalMatrix, 0, mTmpMatrix, 0, mRotZ, 0, 0, 1.0f); // Rotation (mRotZ)
-        Matrix.multiplyMM(mViewMatrix, 0, mGLUI.mVPMatrix, 0, mLocalMatrix, 0);
-
-        // Set parameters to shader
-        GLES20.glUniformMatrix4fv(mGLUI.muMVPMatrixHandle, 1, false, mViewMatrix, 0);
+        mParentSerial = ps;
+        mTransformDirty = false;
+        mWorldSerial++;
     }
 
     public void setColorMatrix() {
@@ -243,6 +329,7 @@ public class Primitive {
         if(mPosAnimValid) {
             mPosX = f1*mTgtPosX+f2*mOrgPosX;
             mPosY = f1*mTgtPosY+f2*mOrgPosY;
+            invalidateTransform();
         }
 
         if(mAnimFactor >= 1.0) {
@@ -254,6 +341,19 @@ public class Primitive {
         updateChildren();
     }
 
+    /**
+     * アニメーション中のPrimitiveがあるか (子を含む)
+     */
+    public boolean isAnimating() {
+        if(!mValid) return false;
+        if(mColorAnimValid || mPosAnimValid) return true;
+        int len = mChildren.size();
+        for(int i = 0; i < len; i++) {
+            if(mChildren.get(i).isAnimating()) return true;
+        }
+        return false;
+    }
+
     public void drawChildren() {
         int len = mChildren.size();
         for(int i = 0; i < len; i++) {
@@ -275,11 +375,48 @@ public class Primitive {
 
         // Draw Call
         if(mNumVertex > 0) {
-            GLES20.glDrawArrays(mType, mVertexPos, mNumVertex);
-            mGLUI.checkGlError("glDrawArrays");
+            mGLUI.drawArrays(mType, mVertexPos, mNumVertex);
         }
 
         // Draw child primitives
 	    drawChildren();
 	}
+
+    /*
+     * バッチ描画から個別に描画される頂点列 (独自のシェーダーを使うPrimitiveはオーバーライドする)
+     */
+    protected void drawImmediate(int first, int count) {
+        mGLUI.bindVertexArray();
+        setViewMatrix();
+        setColorMatrix();
+        mGLUI.drawArrays(mType, first, count);
+    }
+
+    protected void collectChildren(BatchRenderer b) {
+        int len = mChildren.size();
+        for(int i = 0; i < len; i++) {
+            mChildren.get(i).collect(b);
+        }
+    }
+
+    /*
+     * バッチ描画用: draw()と同じ順序・条件で頂点列をBatchRendererに渡す
+     * draw()をオーバーライドしたクラスは、これも合わせてオーバーライドすること
+     */
+    protected void collect(BatchRenderer b) {
+
+        // nothing to do for disabled primitive
+        if(!mValid) return;
+        if(!mVisible) return;
+
+        updateWorldPosition();
+        if(mType == GLES20.GL_TRIANGLE_STRIP) {
+            b.addStrip(this, mVertexPos, mNumVertex);
+        }
+        else {
+            b.addImmediate(this, mVertexPos, mNumVertex);
+        }
+
+        collectChildren(b);
+    }
 }
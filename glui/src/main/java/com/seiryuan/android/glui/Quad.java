@@ -29,7 +29,7 @@ public class Quad extends Primitive {
         super(glui, p);
         mType = GLES20.GL_TRIANGLE_STRIP;
         mNumVertex = 4;
-        mVertexPos = mGLUI.allocVertex(4);
+        allocVertex(4);
         mPosX = 0f;
 		mPosY = 0f;
         mTexU = 0;
@@ -30,7 +30,7 @@ public class Sprite extends Primitive {
 		super(glui, p);
 		mType = GLES20.GL_TRIANGLE_STRIP;
 		mNumVertex = 4;
-		mVertexPos = mGLUI.allocVertex(4);
+		allocVertex(4);
 		mTexU = 0;
 		mTexV = 0;
 	}
@@ -39,7 +39,7 @@ public class Sprite extends Primitive {
         super(glui, p);
         mType = GLES20.GL_TRIANGLE_STRIP;
         mNumVertex = 4;
-        mVertexPos = mGLUI.allocVertex(4);
+        allocVertex(4);
         mPosX = x;
         mPosY = y;
         setSize(w, h);
@@ -42,7 +42,7 @@ public class TextDisp extends Primitive {
         mLength = s.length();
         mMaxLen = mLength;
         mNumVertex = mLength * 6; // vertecis*4 + dummy*2 (to form single strip)
-        mVertexPos = mGLUI.allocVertex(mNumVertex);
+        allocVertex(mNumVertex);
         mStatic = true;
 
         setVertex(s);
@@ -62,7 +62,7 @@ public class TextDisp extends Primitive {
         mLength = 0;
         mNumVertex = 0;
         mMaxLen = max;
-        mVertexPos = mGLUI.allocVertex(mMaxLen*6); // vertecis*4 + dummy*2 (to form single strip)
+        allocVertex(mMaxLen*6); // vertecis*4 + dummy*2 (to form single strip)
         mStatic = false;
     }
 
@@ -0,0 +1,189 @@
+/*
+ * GLUI - OpenGL based GUI library
+ * VertexAllocator.java: allocator of vertex array ranges
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.glui;
+
+import java.util.Arrays;
+
+/**
+ * 頂点配列の範囲 [start, start+n) を割り当てる
+ *
+ * 解放された範囲は、大きさ 2^k 以上 2^(k+1) 未満 毎のフリーリストに置く。
+ * 割り当ては、まず n と同じ大きさのリストから n 以上の最初のブロックを探し(first fit)、
+ * なければより大きいリストから取り出す(必ず足りる)。
+ * 余った部分はフリーリストへ戻し、どのリストにもなければ末尾(top)から割り当てる。
+ * 解放した範囲は隣接する空きと結合し、topに接する場合はtopへ戻す (フリーリスト上の空きは隣接せず、topにも接しない)。
+ * 配列の大きさは管理しない (topが容量を超えたら呼び出し側で配列を拡張する)。
+ */
+class VertexAllocator {
+	private static final int CLASSES = 31;
+
+	// free blocks per size class (start, size pairs as stack)
+	private final int[][] mFree = new int[CLASSES][];
+	private final int[] mFreeCount = new int[CLASSES];
+
+	private int mTop;        // end of the highest block ever allocated
+	private int mUsed;       // vertices currently allocated
+	private int mFreeVertices;
+	private int mFreeBlocks;
+	private int mAllocations;
+
+	// size class of a free block (2^k <= size < 2^(k+1))
+	static int floorClass(int size) {
+		return 31 - Integer.numberOfLeadingZeros(size);
+	}
+
+	/**
+	 * 頂点をn個割り当てる
+	 * @return 先頭の頂点番号
+	 */
+	int alloc(int n) {
+		if(n <= 0) return mTop;
+		mUsed += n;
+		mAllocations++;
+
+		// blocks of the same class may be smaller than n : first fit
+		int k = floorClass(n);
+		int[] list = mFree[k];
+		for(int i = 0; i < mFreeCount[k]; i++) {
+			if(list[i * 2 + 1] >= n) return take(k, i, n);
+		}
+		// any block of the larger classes is large enough
+		for(k++; k < CLASSES; k++) {
+			if(mFreeCount[k] > 0) return take(k, mFreeCount[k] - 1, n);
+		}
+		int start = mTop;
+		mTop += n;
+		return start;
+	}
+
+	/**
+	 * 割り当てた範囲を解放する
+	 */
+	void free(int start, int n) {
+		if(n <= 0) return;
+		mUsed -= n;
+		mAllocations--;
+
+		// coalesce with the free neighbours
+		int end = start + n;
+		int prev = find(-1, start);
+		if(prev >= 0) {
+			int k = prev & 31;
+			int i = prev >> 5;
+			start = mFree[k][i * 2];
+			remove(k, i);
+		}
+		int next = find(end, -1);
+		if(next >= 0) {
+			int k = next & 31;
+			int i = next >> 5;
+			end += mFree[k][i * 2 + 1];
+			remove(k, i);
+		}
+		if(end == mTop) {
+			mTop = start; // give back the tail
+			return;
+		}
+		push(start, end - start);
+	}
+
+	// allocate n vertices from the i-th block of class k (the rest goes back to the free lists)
+	private int take(int k, int i, int n) {
+		int start = mFree[k][i * 2];
+		int size = mFree[k][i * 2 + 1];
+		remove(k, i);
+		if(size > n) {
+			push(start + n, size - n);
+		}
+		return start;
+	}
+
+	/*
+	 * 先頭がstart、または末尾がendの空きを探す (-1 : 条件に使わない)
+	 * @return (index << 5) | class、見つからなければ-1
+	 */
+	private int find(int start, int end) {
+		for(int k = 0; k < CLASSES; k++) {
+			int[] list = mFree[k];
+			for(int i = 0; i < mFreeCount[k]; i++) {
+				if(list[i * 2] == start || list[i * 2] + list[i * 2 + 1] == end) return (i << 5) | k;
+			}
+		}
+		return -1;
+	}
+
+	private void remove(int k, int i) {
+		int[] list = mFree[k];
+		int last = --mFreeCount[k] * 2;
+		mFreeVertices -= list[i * 2 + 1];
+		mFreeBlocks--;
+		list[i * 2] = list[last];
+		list[i * 2 + 1] = list[last + 1];
+	}
+
+	private void push(int start, int size) {
+		int k = floorClass(size);
+		int[] list = mFree[k];
+		int i = mFreeCount[k] * 2;
+		if(list == null) {
+			list = mFree[k] = new int[16];
+		}
+		else if(i == list.length) {
+			list = mFree[k] = Arrays.copyOf(list, i * 2);
+		}
+		list[i] = start;
+		list[i + 1] = size;
+		mFreeCount[k]++;
+		mFreeVertices += size;
+		mFreeBlocks++;
+	}
+
+	/**
+	 * 割り当てた範囲の末尾 (配列に必要な頂点数)
+	 */
+	int getTop() {
+		return mTop;
+	}
+
+	/**
+	 * 割り当て中の頂点数
+	 */
+	int getUsed() {
+		return mUsed;
+	}
+
+	/**
+	 * フリーリスト上の頂点数 (topより下の空き)
+	 */
+	int getFreeVertices() {
+		return mFreeVertices;
+	}
+
+	int getFreeBlocks() {
+		return mFreeBlocks;
+	}
+
+	/**
+	 * 割り当て中の範囲の数
+	 */
+	int getAllocations() {
+		return mAllocations;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * GLUI - OpenGL based GUI library
+ * VertexFormat.java: layout of vertices in the vertex buffers
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.glui;
+
+import java.nio.ByteBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * VBO上の頂点の形式
+ *
+ * FLOAT  : x, y, z, u, v をfloatで (20byte, 頂点カラー付きは +16byte)
+ * COMPACT: x, y をfloat, u, v を正規化したunsigned shortで (12byte, 頂点カラー付きは RGBA各1byte で +4byte)
+ * COMPACTではzは無視され、UVは0～1に制限される (テクスチャ座標は1024pixelのテクスチャでも1/64pixel以下の誤差)
+ */
+public final class VertexFormat {
+
+	public static final VertexFormat FLOAT = new VertexFormat(false, false);
+	public static final VertexFormat COMPACT = new VertexFormat(true, false);
+	private static final VertexFormat FLOAT_COLOR = new VertexFormat(false, true);
+	private static final VertexFormat COMPACT_COLOR = new VertexFormat(true, true);
+
+	private static final float UV_SCALE = 65535f;
+
+	private final boolean mCompact;
+	private final boolean mColor;
+	private final int mStride;     // bytes per vertex
+	private final int mUVOffset;   // byte offset of u, v
+	private final int mColorOffset; // byte offset of r, g, b, a
+
+	private VertexFormat(boolean compact, boolean color) {
+		mCompact = compact;
+		mColor = color;
+		mUVOffset = compact ? 8 : 12;
+		mColorOffset = compact ? 12 : 20;
+		mStride = color ? (compact ? 16 : 36) : mColorOffset;
+	}
+
+	/**
+	 * 頂点カラーを加えた形式 (バッチ描画用)
+	 */
+	VertexFormat withColor() {
+		return mCompact ? COMPACT_COLOR : FLOAT_COLOR;
+	}
+
+	/**
+	 * 1頂点のバイト数
+	 */
+	public int getStride() {
+		return mStride;
+	}
+
+	public boolean isCompact() {
+		return mCompact;
+	}
+
+	/**
+	 * index番目の頂点を書き込む
+	 */
+	void put(ByteBuffer dst, int index, float x, float y, float z, float u, float v) {
+		int p = index * mStride;
+		dst.putFloat(p, x);
+		dst.putFloat(p + 4, y);
+		if(mCompact) {
+			dst.putShort(p + 8, toShortUV(u));
+			dst.putShort(p + 10, toShortUV(v));
+		}
+		else {
+			dst.putFloat(p + 8, z);
+			dst.putFloat(p + 12, u);
+			dst.putFloat(p + 16, v);
+		}
+	}
+
+	/**
+	 * index番目の頂点カラーを書き込む (頂点カラー付きの形式のみ)
+	 */
+	void putColor(ByteBuffer dst, int index, float r, float g, float b, float a) {
+		int p = index * mStride + mColorOffset;
+		if(mCompact) {
+			dst.put(p, toByteColor(r));
+			dst.put(p + 1, toByteColor(g));
+			dst.put(p + 2, toByteColor(b));
+			dst.put(p + 3, toByteColor(a));
+		}
+		else {
+			dst.putFloat(p, r);
+			dst.putFloat(p + 4, g);
+			dst.putFloat(p + 8, b);
+			dst.putFloat(p + 12, a);
+		}
+	}
+
+	float getX(ByteBuffer src, int index) {
+		return src.getFloat(index * mStride);
+	}
+
+	float getY(ByteBuffer src, int index) {
+		return src.getFloat(index * mStride + 4);
+	}
+
+	float getU(ByteBuffer src, int index) {
+		int p = index * mStride + mUVOffset;
+		return mCompact ? (src.getShort(p) & 0xffff) / UV_SCALE : src.getFloat(p);
+	}
+
+	float getV(ByteBuffer src, int index) {
+		int p = index * mStride + mUVOffset + (mCompact ? 2 : 4);
+		return mCompact ? (src.getShort(p) & 0xffff) / UV_SCALE : src.getFloat(p);
+	}
+
+	float getColorG(ByteBuffer src, int index) {
+		int p = index * mStride + mColorOffset;
+		return mCompact ? (src.get(p + 1) & 0xff) / 255f : src.getFloat(p + 4);
+	}
+
+	/**
+	 * 現在のGL_ARRAY_BUFFERを頂点属性に設定する (頂点カラーのない形式では、頂点カラーを白で固定)
+	 */
+	void bind(int positionHandle, int textureHandle, int colorHandle) {
+		GLES20.glVertexAttribPointer(positionHandle, mCompact ? 2 : 3, GLES20.GL_FLOAT, false, mStride, 0);
+		GLES20.glEnableVertexAttribArray(positionHandle);
+		if(mCompact) {
+			GLES20.glVertexAttribPointer(textureHandle, 2, GLES20.GL_UNSIGNED_SHORT, true, mStride, mUVOffset);
+		}
+		else {
+			GLES20.glVertexAttribPointer(textureHandle, 2, GLES20.GL_FLOAT, false, mStride, mUVOffset);
+		}
+		GLES20.glEnableVertexAttribArray(textureHandle);
+		if(mColor) {
+			if(mCompact) {
+				GLES20.glVertexAttribPointer(colorHandle, 4, GLES20.GL_UNSIGNED_BYTE, true, mStride, mColorOffset);
+			}
+			else {
+				GLES20.glVertexAttribPointer(colorHandle, 4, GLES20.GL_FLOAT, false, mStride, mColorOffset);
+			}
+			GLES20.glEnableVertexAttribArray(colorHandle);
+		}
+		else {
+			GLES20.glDisableVertexAttribArray(colorHandle);
+			GLES20.glVertexAttrib4f(colorHandle, 1.0f, 1.0f, 1.0f, 1.0f);
+		}
+	}
+
+	private static short toShortUV(float u) {
+		if(u <= 0f) return 0;
+		if(u >= 1.0f) return (short)0xffff;
+		return (short)Math.round(u * UV_SCALE);
+	}
+
+	private static byte toByteColor(float c) {
+		if(c <= 0f) return 0;
+		if(c >= 1.0f) return (byte)0xff;
+		return (byte)Math.round(c * 255f);
+	}
+}
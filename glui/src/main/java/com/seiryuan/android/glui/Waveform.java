@@ -0,0 +1,251 @@
+/*
+ * GLUI - OpenGL based GUI library
+ * Waveform.java: waveform primitive drawn from raw ADC codes
+ *
+ * Copyright (C) 2016,2017 Masayoshi Tanaka @ Workshop SeiRyuAn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seiryuan.android.glui;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * ADCの値(short)をそのままVBOへ転送し、座標への変換を頂点シェーダで行う波形(折れ線)
+ *
+ * 点の番号は固定のVBO、値はフレーム毎に一括転送するVBOに置く。
+ * 横方向の間隔・縦方向のゲイン/オフセット・校正値はuniformなので、変更しても頂点の転送は発生しない。
+ * GLUIの頂点配列は使わない。
+ */
+public class Waveform extends Primitive {
+	private final int mMaxPoints;
+	private final ShortBuffer mCodes;
+	private final int[] mBuffers = new int[2]; // index (static), code (stream)
+	private int mContextSerial = -1;
+	private boolean mCodesDirty;
+
+	private int mColumns;        // number of x positions
+	private float mIndexScale;   // x position = floor(index * mIndexScale)
+	private float mOriginX, mWidth;
+	private float mGain, mOffsetY;
+	private float mCalGain, mCalOffset;
+
+	public Waveform(GLUI glui, Primitive p, int maxPoints) {
+		super(glui, p);
+		mType = GLES20.GL_LINE_STRIP;
+		mMaxPoints = maxPoints;
+		mNumVertex = 0;
+		mCodes = ByteBuffer.allocateDirect(maxPoints * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+		mColumns = 1;
+		mIndexScale = 1.0f;
+		mOriginX = 0f;
+		mWidth = 1.0f;
+		mGain = 1.0f;
+		mOffsetY = 0f;
+		mCalGain = 1.0f;
+		mCalOffset = 0f;
+	}
+
+	/**
+	 * 横方向の表示範囲
+	 * @param x0 先頭の点のX座標
+	 * @param width 表示幅 (点の数に関わらず、この幅に割り付ける)
+	 */
+	public void setMapping(float x0, float width) {
+		mOriginX = x0;
+		mWidth = width;
+	}
+
+	/**
+	 * 縦方向の変換 y = 値 * gain + offset
+	 */
+	public void setVerticalScale(float gain, float offset) {
+		mGain = gain;
+		mOffsetY = offset;
+	}
+
+	/**
+	 * 校正値 (縦方向の変換の前に適用) 値 = code * gain + offset
+	 */
+	public void setCalibration(float gain, float offset) {
+		mCalGain = gain;
+		mCalOffset = offset;
+	}
+
+	/**
+	 * n個のサンプルを表示幅全体に割り付ける (一括コピーのみ)
+	 * @param codes ADCの値
+	 * @param off 先頭位置
+	 * @param n サンプル数 (最大点数まで)
+	 */
+	public void setSamples(short[] codes, int off, int n) {
+		n = Math.min(n, mMaxPoints);
+		mCodes.position(0);
+		mCodes.put(codes, off, n);
+		mNumVertex = n;
+		mColumns = Math.max(n, 1);
+		mIndexScale = 1.0f;
+		mCodesDirty = true;
+	}
+
+	/**
+	 * 列毎のmin/maxを縦線の連続として表示する (列毎に上下の順を入れ替えて、隣の列との間を短く結ぶ)
+	 * @param min 列毎の最小値
+	 * @param max 列毎の最大値
+	 * @param columns 列数 (最大点数の半分まで)
+	 */
+	public void setEnvelope(short[] min, short[] max, int columns) {
+		columns = Math.min(columns, mMaxPoints / 2);
+		mCodes.position(0);
+		for(int c = 0; c < columns; c++) {
+			if((c & 1) == 0) {
+				mCodes.put(min[c]);
+				mCodes.put(max[c]);
+			}
+			else {
+				mCodes.put(max[c]);
+				mCodes.put(min[c]);
+			}
+		}
+		mNumVertex = columns * 2;
+		mColumns = Math.max(columns, 1);
+		mIndexScale = 0.5f;
+		mCodesDirty = true;
+	}
+
+	/**
+	 * 点の番号からX座標を求める (頂点シェーダと同じ計算)
+	 */
+	public float mapX(int index) {
+		return (float)Math.floor(index * mIndexScale) * mWidth / mColumns + mOriginX;
+	}
+
+	/**
+	 * ADCの値からY座標を求める (頂点シェーダと同じ計算)
+	 */
+	public float mapY(int code) {
+		return (code * mCalGain + mCalOffset) * mGain + mOffsetY;
+	}
+
+	public int getNumPoints() {
+		return mNumVertex;
+	}
+
+	public int getMaxPoints() {
+		return mMaxPoints;
+	}
+
+	ShortBuffer getCodes() {
+		return mCodes;
+	}
+
+	// create buffers for the current GL context (the static index buffer is sent only here)
+	private void createBuffers() {
+		mContextSerial = mGLUI.mContextSerial;
+		GLES20.glGenBuffers(2, mBuffers, 0);
+		ShortBuffer index = ByteBuffer.allocateDirect(mMaxPoints * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+		for(int i = 0; i < mMaxPoints; i++) {
+			index.put((short)i);
+		}
+		index.position(0);
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffers[0]);
+		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mMaxPoints * 2, index, GLES20.GL_STATIC_DRAW);
+		mGLUI.checkGlError("glBufferData index");
+		mGLUI.countUpload(mMaxPoints * 2);
+		mCodesDirty = true;
+	}
+
+	private void drawWave() {
+		if(mNumVertex < 2) return;
+		if(mContextSerial != mGLUI.mContextSerial) createBuffers();
+		updateViewMatrix();
+
+		mGLUI.beginWaveform();
+		GLES20.glUniformMatrix4fv(mGLUI.muWaveMVPMatrixHandle, 1, false, mViewMatrix, 0);
+		GLES20.glUniform4f(mGLUI.muWaveColorHandle, mColorR, mColorG, mColorB, mColorA);
+		GLES20.glUniform4f(mGLUI.muWaveMappingHandle, mWidth / mColumns, mOriginX, mGain, mOffsetY);
+		GLES20.glUniform2f(mGLUI.muWaveCalibrationHandle, mCalGain, mCalOffset);
+		GLES20.glUniform1f(mGLUI.muWaveIndexScaleHandle, mIndexScale);
+
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffers[0]);
+		GLES20.glVertexAttribPointer(mGLUI.maWaveIndexHandle, 1, GLES20.GL_UNSIGNED_SHORT, false, 0, 0);
+		GLES20.glEnableVertexAttribArray(mGLUI.maWaveIndexHandle);
+
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffers[1]);
+		if(mCodesDirty) {
+			// re-specify the store with the new codes (orphans the storage still in use by the GPU)
+			mCodes.position(0);
+			GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mNumVertex * 2, mCodes, GLES20.GL_STREAM_DRAW);
+			mGLUI.checkGlError("glBufferData code");
+			mGLUI.countUpload(mNumVertex * 2);
+			mCodesDirty = false;
+		}
+		GLES20.glVertexAttribPointer(mGLUI.maWaveCodeHandle, 1, GLES20.GL_SHORT, false, 0, 0);
+		GLES20.glEnableVertexAttribArray(mGLUI.maWaveCodeHandle);
+		mGLUI.checkGlError("glVertexAttribPointer wave");
+
+		mGLUI.drawArrays(mType, 0, mNumVertex);
+
+		GLES20.glDisableVertexAttribArray(mGLUI.maWaveIndexHandle);
+		GLES20.glDisableVertexAttribArray(mGLUI.maWaveCodeHandle);
+		mGLUI.endWaveform();
+	}
+
+	@Override
+	protected void releaseVertex() {
+		if(mContextSerial == mGLUI.mContextSerial) {
+			GLES20.glDeleteBuffers(2, mBuffers, 0);
+			mContextSerial = -1;
+		}
+		super.releaseVertex();
+	}
+
+	@Override
+	public void draw() {
+
+		// nothing to do for disabled primitive
+		if(!mValid) return;
+		if(!mVisible) return;
+
+		drawWave();
+
+		// Draw child primitives
+		drawChildren();
+	}
+
+	@Override
+	protected void drawImmediate(int first, int count) {
+		drawWave();
+	}
+
+	/*
+	 * 点数が変わってもバッチを作り直さないよう、常に最大点数で登録する
+	 */
+	@Override
+	protected void collect(BatchRenderer b) {
+
+		// nothing to do for disabled primitive
+		if(!mValid) return;
+		if(!mVisible) return;
+
+		updateWorldPosition();
+		b.addImmediate(this, 0, mMaxPoints);
+
+		collectChildren(b);
+	}
+}
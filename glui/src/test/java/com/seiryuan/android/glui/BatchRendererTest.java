@@ -0,0 +1,85 @@
+package com.seiryuan.android.glui;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * BatchRenderer local unit test (runs on the development machine, GL calls are no-op).
+ */
+public class BatchRendererTest {
+
+    private static GLUI createTree() {
+        GLUI glui = new GLUI(null);
+        glui.setTextureSize(1024, 0);
+        Primitive panel = new Primitive(glui, null);
+        panel.setPosition(100f, 0f);
+        for (int i = 0; i < 10; i++) {
+            new Sprite(glui, panel, i * 50f, 0f, 40f, 40f, 0f, 0f);
+        }
+        Line grid = new Line(glui, null, 4);
+        for (int i = 0; i < 4; i++) grid.setVertex(i, i, i);
+        for (int i = 0; i < 5; i++) {
+            new Sprite(glui, null, 0f, i * 50f, 40f, 40f, 0f, 0f);
+        }
+        return glui;
+    }
+
+    private static int drawFrame(GLUI glui) {
+        glui.initDraw();
+        glui.draw();
+        glui.initDraw();
+        return glui.getDrawCalls();
+    }
+
+    @Test
+    public void strips_areJoinedAroundImmediateDraws() throws Exception {
+        GLUI glui = createTree();
+        glui.setBatching(false);
+        assertEquals(16, drawFrame(glui));
+        glui.setBatching(true);
+        assertEquals(3, drawFrame(glui)); // sprites, line, sprites
+    }
+
+    @Test
+    public void batch_isRebuiltOnlyOnChange() throws Exception {
+        GLUI glui = new GLUI(null);
+        glui.setTextureSize(1024, 0);
+        Primitive parent = new Primitive(glui, null);
+        parent.setPosition(10f, 20f);
+        Sprite s = new Sprite(glui, parent, 0f, 0f, 4f, 2f, 0f, 0f);
+        s.setRotation(90f);
+        s.setColor(0.5f, 0.25f, 1.0f, 1.0f);
+
+        drawFrame(glui);
+        BatchRenderer batch = glui.getBatchRenderer();
+        int rebuilds = batch.getRebuildCount();
+        drawFrame(glui);
+        assertEquals(rebuilds, batch.getRebuildCount());
+
+        // first vertex (-2, -1) rotated by 90deg and moved to the world position
+        ByteBuffer a = batch.getArray();
+        VertexFormat f = batch.getFormat();
+        assertEquals(4, batch.getVertexCount());
+        assertEquals(11f, f.getX(a, 0), 1e-4f);
+        assertEquals(18f, f.getY(a, 0), 1e-4f);
+        assertEquals(0.25f, f.getColorG(a, 0), 0f);
+
+        parent.setPosition(30f, 20f);
+        drawFrame(glui);
+        assertEquals(rebuilds + 1, batch.getRebuildCount());
+        assertEquals(31f, f.getX(batch.getArray(), 0), 1e-4f);
+
+        s.setSize(8f, 2f); // vertex change
+        drawFrame(glui);
+        assertEquals(rebuilds + 2, batch.getRebuildCount());
+        assertEquals(31f, f.getX(batch.getArray(), 0), 1e-4f);
+        assertEquals(16f, f.getY(batch.getArray(), 0), 1e-4f);
+
+        s.hide();
+        drawFrame(glui);
+        assertEquals(0, batch.getVertexCount());
+    }
+}
@@ -0,0 +1,38 @@
+package com.seiryuan.android.glui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * DirtyRanges local unit test (runs on the development machine).
+ */
+public class DirtyRangesTest {
+
+    @Test
+    public void sequentialWrites_formOneRange() throws Exception {
+        DirtyRanges dirty = new DirtyRanges();
+        for (int i = 100; i < 1100; i++) dirty.add(i, i + 1);
+        dirty.add(500, 501); // already covered
+        dirty.add(20, 24);
+
+        assertEquals(2, dirty.size());
+        assertEquals(1004, dirty.getVertexCount());
+        dirty.add(24, 100); // bridges both
+        assertEquals(1, dirty.size());
+        assertEquals(20, dirty.getStart(0));
+        assertEquals(1100, dirty.getEnd(0));
+    }
+
+    @Test
+    public void tooManyRanges_joinNearest() throws Exception {
+        DirtyRanges dirty = new DirtyRanges();
+        for (int i = 0; i < DirtyRanges.MAX_RANGES; i++) dirty.add(i * 100, i * 100 + 10);
+        dirty.add(215, 220); // closest to [200, 210)
+
+        assertEquals(DirtyRanges.MAX_RANGES, dirty.size());
+        assertEquals(DirtyRanges.MAX_RANGES * 10 + 10, dirty.getVertexCount());
+        dirty.clear();
+        assertEquals(0, dirty.size());
+    }
+}
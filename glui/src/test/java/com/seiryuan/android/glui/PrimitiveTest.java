@@ -0,0 +1,69 @@
+package com.seiryuan.android.glui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Primitive transform cache local unit test (runs on the development machine, GL calls are no-op).
+ */
+public class PrimitiveTest {
+
+    // reference: vp x T x R with plain 4x4 products (column-major)
+    private static float[] reference(float[] vp, float tx, float ty, float angle) {
+        double rad = Math.toRadians(angle);
+        float c = (float) Math.cos(rad);
+        float s = (float) Math.sin(rad);
+        float[] local = {c, s, 0, 0, -s, c, 0, 0, 0, 0, 1, 0, tx, ty, 0, 1};
+        float[] dst = new float[16];
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) sum += vp[k * 4 + row] * local[col * 4 + k];
+                dst[col * 4 + row] = sum;
+            }
+        }
+        return dst;
+    }
+
+    @Test
+    public void affineFastPath_matchesMatrixProduct() throws Exception {
+        float[] vp = new float[16];
+        for (int i = 0; i < 16; i++) vp[i] = (i * 7 % 11) / 3f - 1f;
+        float[] dst = new float[16];
+        for (float angle : new float[]{0f, 30f, 90f, -135f}) {
+            Primitive.multiplyAffine(dst, vp, 12.5f, -40f, angle);
+            assertArrayEquals(reference(vp, 12.5f, -40f, angle), dst, 1e-4f);
+        }
+    }
+
+    @Test
+    public void matrix_isUploadedOnlyWhenChanged() throws Exception {
+        GLUI glui = new GLUI(null);
+        glui.setBatching(false);
+        for (int i = 0; i < 4; i++) glui.mVPMatrix[i * 5] = 1f;
+        glui.mVPSerial++;
+        Primitive panel = new Primitive(glui, null);
+        Line a = new Line(glui, panel, 2);
+        Line b = new Line(glui, panel, 2); // same world position as a
+
+        glui.initDraw();
+        glui.draw();
+        int uploads = glui.getMatrixUploads();
+        glui.initDraw();
+        glui.draw();
+        assertEquals(uploads, glui.getMatrixUploads()); // nothing moved
+
+        panel.setPosition(10f, 0f); // children follow the parent
+        glui.initDraw();
+        glui.draw();
+        assertEquals(10f, a.mPosWX, 0f);
+        assertEquals(10f, b.mPosWX, 0f);
+        assertEquals(uploads + 1, glui.getMatrixUploads()); // panel (a and b are identical)
+
+        b.setRotation(90f);
+        glui.initDraw();
+        glui.draw();
+        assertEquals(uploads + 4, glui.getMatrixUploads()); // world, panel and b
+    }
+}
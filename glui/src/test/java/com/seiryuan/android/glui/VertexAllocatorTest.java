@@ -0,0 +1,116 @@
+package com.seiryuan.android.glui;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * VertexAllocator and GLUI vertex array local unit test (runs on the development machine, GL calls are no-op).
+ */
+public class VertexAllocatorTest {
+
+    @Test
+    public void freedRanges_areReusedBySizeClass() throws Exception {
+        VertexAllocator a = new VertexAllocator();
+        assertEquals(0, a.alloc(4));
+        int text = a.alloc(384);
+        int b = a.alloc(100);
+        assertEquals(488, a.getTop());
+
+        a.free(text, 384);
+        assertEquals(384, a.getFreeVertices());
+        assertEquals(text, a.alloc(384)); // same size (not a power of two) is reused
+        assertEquals(488, a.getTop());
+        assertEquals(0, a.getFreeBlocks());
+
+        a.free(text, 384);
+        assertEquals(4, a.alloc(256)); // split, 128 left in the free list
+        assertEquals(260, a.alloc(100));
+        assertEquals(1, a.getFreeBlocks());
+        assertEquals(28, a.getFreeVertices());
+        assertEquals(488, a.alloc(50)); // no free block is large enough
+
+        // freed ranges are coalesced with the free neighbours
+        a.free(260, 100);
+        assertEquals(1, a.getFreeBlocks());
+        assertEquals(128, a.getFreeVertices());
+        assertEquals(260, a.alloc(128));
+        a.free(260, 128);
+
+        // tail is given back to the top, together with the free blocks below it
+        a.free(488, 50);
+        assertEquals(488, a.getTop());
+        a.free(b, 100);
+        assertEquals(260, a.getTop());
+        assertEquals(0, a.getFreeBlocks());
+        assertEquals(4 + 256, a.getUsed());
+        assertEquals(2, a.getAllocations());
+
+        assertEquals(0, VertexAllocator.floorClass(1));
+        assertEquals(6, VertexAllocator.floorClass(100));
+        assertEquals(7, VertexAllocator.floorClass(128));
+    }
+
+    @Test
+    public void vertexArray_growsAndKeepsVertices() throws Exception {
+        GLUI glui = new GLUI(null);
+        glui.setTextureSize(1024, 0);
+        int capacity = glui.getVertexCapacity();
+        Sprite s = new Sprite(glui, null, 0f, 0f, 40f, 20f, 0f, 0f);
+        float x = glui.getVertexArray().get(0);
+        assertEquals(-20f, x, 0f);
+
+        // a trace larger than the initial array
+        LineStrip trace = new LineStrip(glui, null, capacity + 100);
+        trace.setVertex(capacity + 99, 1f, 2f);
+        assertEquals(capacity * 2, glui.getVertexCapacity());
+        FloatBuffer a = glui.getVertexArray();
+        assertEquals(x, a.get(0), 0f);
+        assertEquals(1f, a.get((4 + capacity + 99) * 5), 0f);
+        glui.initDraw();
+        glui.draw();
+
+        trace.release();
+        assertEquals(4, glui.getVertexUsed());
+        assertEquals(4, glui.getVertexPosition()); // tail returned
+        glui.initDraw();
+        glui.draw();
+
+        // released range is zero cleared on reuse
+        LineStrip l1 = new LineStrip(glui, null, 8);
+        l1.setVertex(0, 5f, 5f);
+        Primitive panel = new Primitive(glui, null);
+        new Sprite(glui, panel, 0f, 0f, 4f, 4f, 0f, 0f);
+        new Sprite(glui, panel, 0f, 0f, 4f, 4f, 0f, 0f);
+        l1.release();
+        assertEquals(8, glui.getVertexFree());
+        LineStrip l2 = new LineStrip(glui, null, 8);
+        assertEquals(0f, glui.getVertexArray().get(l2.mVertexPos * 5), 0f);
+        assertEquals(0, glui.getVertexFree());
+
+        panel.release();
+        assertEquals(4 + 8, glui.getVertexUsed());
+        assertEquals(0, glui.getVertexFree()); // both sprites are given back to the top
+        assertEquals(12, glui.getVertexPosition());
+    }
+
+    @Test
+    public void vertexEdits_betweenInitDrawAndDraw_areUploadedInTheSameFrame() throws Exception {
+        GLUI glui = new GLUI(null);
+        glui.setTextureSize(1024, 0);
+        LineStrip trace = new LineStrip(glui, null, 100);
+        for (int f = 0; f < 2; f++) {
+            glui.initDraw();
+            glui.draw();
+        }
+
+        // the renderer updates primitives after initDraw()
+        glui.initDraw();
+        long bytes = glui.getUploadBytes();
+        trace.setVertex(50, 1f, 2f);
+        glui.draw();
+        assertTrue(glui.getUploadBytes() > bytes);
+    }
+}
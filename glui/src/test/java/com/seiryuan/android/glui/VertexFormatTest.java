@@ -0,0 +1,98 @@
+package com.seiryuan.android.glui;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * VertexFormat local unit test and upload benchmark (runs on the development machine, GL calls are no-op).
+ */
+public class VertexFormatTest {
+
+    private static final int TRACE_POINTS = 960;
+    private static final int FRAMES = 10;
+
+    @Test
+    public void compactLayout_keepsTexelPrecision() throws Exception {
+        assertEquals(20, VertexFormat.FLOAT.getStride());
+        assertEquals(12, VertexFormat.COMPACT.getStride());
+        assertEquals(36, VertexFormat.FLOAT.withColor().getStride());
+        assertEquals(16, VertexFormat.COMPACT.withColor().getStride());
+
+        VertexFormat f = VertexFormat.COMPACT.withColor();
+        ByteBuffer b = ByteBuffer.allocate(f.getStride() * 2).order(ByteOrder.nativeOrder());
+        f.put(b, 1, -480.5f, 12.25f, 3f, 594.5f / 1024, 1.5f);
+        f.putColor(b, 1, 1.0f, 0.5f, 0f, 1.0f);
+        assertEquals(-480.5f, f.getX(b, 1), 0f);
+        assertEquals(12.25f, f.getY(b, 1), 0f);
+        assertEquals(594.5f / 1024, f.getU(b, 1), 1f / 1024 / 64); // < 1/64 texel on a 1024 pixel texture
+        assertEquals(1.0f, f.getV(b, 1), 0f); // clamped
+        assertEquals(0.5f, f.getColorG(b, 1), 1f / 255);
+    }
+
+    // UI similar to the oscilloscope screen : static panel, diagnostics text and a trace
+    private static GLUI createScene(VertexFormat format, boolean waveform) {
+        GLUI glui = new GLUI(null);
+        glui.setTextureSize(1024, 0);
+        glui.setVertexFormat(format);
+        glui.setBatchFormat(format);
+        FontInfo font = new FontInfo(14f, 24f, 704f, 240f, 6, 16);
+        Primitive panel = new Primitive(glui, null);
+        for (int i = 0; i < 40; i++) {
+            new Sprite(glui, panel, (i % 8) * 100f, (i / 8) * 100f, 96f, 96f, 320f, 828f);
+        }
+        new TextDisp(glui, panel, font, -470, -470, "OscilloScope");
+        if (waveform) {
+            Waveform wave = new Waveform(glui, panel, TRACE_POINTS);
+            wave.setMapping(-480f, 960f);
+        }
+        else {
+            LineStrip trace = new LineStrip(glui, panel, TRACE_POINTS);
+            trace.setTexture(594, 256);
+        }
+        new TextDisp(glui, panel, font, -470, -444, 64);
+        return glui;
+    }
+
+    // bytes sent to the vertex buffers per frame (trace and one text line change every frame)
+    private static double uploadPerFrame(GLUI glui) {
+        Primitive panel = glui.world.mChildren.get(0);
+        Primitive trace = panel.mChildren.get(41);
+        TextDisp text = (TextDisp) panel.mChildren.get(42);
+        short[] codes = new short[TRACE_POINTS];
+        long bytes = 0;
+        for (int f = -2; f < FRAMES; f++) {
+            if (f == 0) bytes = glui.getUploadBytes();
+            for (int i = 0; i < TRACE_POINTS; i++) codes[i] = (short) (512 + 400 * Math.sin((i + f) / 15.0));
+            if (trace instanceof Waveform) {
+                ((Waveform) trace).setSamples(codes, 0, TRACE_POINTS);
+            }
+            else {
+                for (int i = 0; i < TRACE_POINTS; i++) {
+                    ((LineStrip) trace).setVertex(i, i - 480f, -codes[i] / 1.06f + 480f);
+                }
+            }
+            text.setText(String.format("frame %d", f));
+            glui.initDraw();
+            glui.draw();
+        }
+        return (double) (glui.getUploadBytes() - bytes) / FRAMES;
+    }
+
+    @Test
+    public void compactLayout_reducesUploadPerFrame() throws Exception {
+        double floatTrace = uploadPerFrame(createScene(VertexFormat.FLOAT, false));
+        double compactTrace = uploadPerFrame(createScene(VertexFormat.COMPACT, false));
+        double floatWave = uploadPerFrame(createScene(VertexFormat.FLOAT, true));
+        double compactWave = uploadPerFrame(createScene(VertexFormat.COMPACT, true));
+        System.out.printf("Upload per frame: float %.0f bytes, compact %.0f bytes (%.2fx) / with Waveform: float %.0f bytes, compact %.0f bytes (%.2fx)%n",
+                floatTrace, compactTrace, floatTrace / compactTrace, floatWave, compactWave, floatWave / compactWave);
+
+        assertTrue(compactTrace < floatTrace * 0.6);
+        assertTrue(compactWave < floatWave * 0.6);
+        assertTrue(compactWave < compactTrace);
+    }
+}
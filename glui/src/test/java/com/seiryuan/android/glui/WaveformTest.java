@@ -0,0 +1,82 @@
+package com.seiryuan.android.glui;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Waveform local unit test (runs on the development machine, GL calls are no-op).
+ */
+public class WaveformTest {
+
+    private static void drawFrame(GLUI glui) {
+        glui.initDraw();
+        glui.draw();
+    }
+
+    @Test
+    public void codes_areUploadedOncePerUpdate() throws Exception {
+        GLUI glui = new GLUI(null);
+        glui.setTextureSize(1024, 0);
+        new Sprite(glui, null, 0f, 0f, 40f, 40f, 0f, 0f);
+        Waveform wave = new Waveform(glui, null, 1920);
+        wave.setMapping(-480f, 960f);
+        wave.setVerticalScale(-1f / 1.06f, 480f);
+        new Sprite(glui, null, 0f, 50f, 40f, 40f, 0f, 0f);
+
+        short[] codes = new short[480];
+        for (int i = 0; i < codes.length; i++) codes[i] = (short) (512 + 400 * Math.sin(i / 15.0));
+        wave.setSamples(codes, 0, codes.length);
+        drawFrame(glui);
+        drawFrame(glui);
+        assertEquals(3, glui.getDrawCalls()); // sprite, waveform, sprite
+
+        // one short per sample, independent of the vertical scale
+        long bytes = glui.getUploadBytes();
+        wave.setSamples(codes, 0, codes.length);
+        drawFrame(glui);
+        assertEquals(codes.length * 2, glui.getUploadBytes() - bytes);
+
+        bytes = glui.getUploadBytes();
+        int rebuilds = glui.getBatchRenderer().getRebuildCount();
+        wave.setVerticalScale(-2f / 1.06f, 240f);
+        wave.setSamples(codes, 0, 100); // fewer points keep the batch
+        drawFrame(glui);
+        assertEquals(200, glui.getUploadBytes() - bytes);
+        assertEquals(rebuilds, glui.getBatchRenderer().getRebuildCount());
+    }
+
+    @Test
+    public void mapping_matchesTheCpuConversion() throws Exception {
+        GLUI glui = new GLUI(null);
+        Waveform wave = new Waveform(glui, null, 16);
+        wave.setMapping(-480f, 960f);
+        wave.setVerticalScale(-1f / 1.06f, 480f);
+
+        short[] codes = {0, 1023, 512, 100};
+        wave.setSamples(codes, 0, 4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals((float) i * 960f / 4 - 480f, wave.mapX(i), 1e-4f);
+            assertEquals(-(float) codes[i] / 1.06f + 480f, wave.mapY(codes[i]), 1e-3f);
+        }
+        wave.setCalibration(2f, -10f);
+        assertEquals(-(2f * 100 - 10f) / 1.06f + 480f, wave.mapY(100), 1e-3f);
+
+        // envelope: min/max pair per column, order alternates
+        short[] min = {1, 3, 5};
+        short[] max = {2, 4, 6};
+        wave.setEnvelope(min, max, 3);
+        assertEquals(6, wave.getNumPoints());
+        ShortBuffer b = wave.getCodes();
+        short[] expected = {1, 2, 4, 3, 5, 6};
+        for (int i = 0; i < expected.length; i++) assertEquals(expected[i], b.get(i));
+        assertEquals(wave.mapX(2), wave.mapX(3), 0f);
+        assertEquals(-480f + 320f, wave.mapX(2), 1e-4f);
+
+        // clipped to the allocated size
+        wave.setEnvelope(new short[20], new short[20], 20);
+        assertEquals(16, wave.getNumPoints());
+    }
+}